@@ -6,6 +6,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
+import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaBrowserCompat.MediaItem;
 import android.support.v4.media.MediaBrowserServiceCompat;
 import android.support.v4.media.MediaMetadataCompat;
@@ -14,28 +15,34 @@ import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
 import com.firekernel.musicplayer.R;
+import com.firekernel.musicplayer.model.MediaItemWrapper;
+import com.firekernel.musicplayer.source.CatalogSync;
 import com.firekernel.musicplayer.source.MusicProvider;
+import com.firekernel.musicplayer.source.SearchResultProvider;
 import com.firekernel.musicplayer.utils.FireLog;
 import com.firekernel.musicplayer.utils.PackageValidator;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_EMPTY_ROOT;
 import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ROOT;
 
 public class MusicPlayerService extends MediaBrowserServiceCompat implements
-        PlaybackManager.MusicPlayerServiceCallback {
+        PlaybackManager.MusicPlayerServiceCallback, MusicProvider.CatalogListener {
 
     public static final String ACTION_CMD = "com.firekernel.player.ACTION_CMD";
     public static final String CMD_NAME = "CMD_NAME";
     public static final String CMD_PAUSE = "CMD_PAUSE";
     private static final String TAG = FireLog.makeLogTag(MusicPlayerService.class);
+    private static final String EXTRA_SEARCH_SUPPORTED = "android.media.browse.SEARCH_SUPPORTED";
     // Delay stopSelf by using a handler.
     private static final int STOP_DELAY = 10 * 1000; //10 seconds
     private final DelayedStopHandler delayedStopHandler = new DelayedStopHandler(this);
     private MusicProvider musicProvider;
+    private CatalogSync catalogSync;
     private PlaybackManager playbackManager;
     private MediaSessionCompat session;
     private QueueManager.MetadataUpdateListener metadataUpdateListener = new QueueManager.MetadataUpdateListener() {
@@ -73,6 +80,12 @@ public class MusicPlayerService extends MediaBrowserServiceCompat implements
         setSessionToken(session.getSessionToken());
 
         musicProvider = MusicProvider.getInstance();
+        musicProvider.setCatalogListener(this);
+        musicProvider.retrieveCatalogAsync();
+        // categories are loaded in the background so the first tap on one is served from cache
+        musicProvider.warmUpAsync();
+        catalogSync = new CatalogSync(this, new Handler(), musicProvider);
+        catalogSync.register();
 
         QueueManager queueManager = new QueueManager(musicProvider, metadataUpdateListener);
         MediaPlayback playback = new MediaPlayback(this);
@@ -128,6 +141,8 @@ public class MusicPlayerService extends MediaBrowserServiceCompat implements
         mediaNotificationManager.stopNotification();
 
         delayedStopHandler.removeCallbacksAndMessages(null);
+        catalogSync.unregister();
+        musicProvider.setCatalogListener(null);
         session.release();
     }
 
@@ -143,27 +158,124 @@ public class MusicPlayerService extends MediaBrowserServiceCompat implements
             return new MediaBrowserServiceCompat.BrowserRoot(MEDIA_ID_EMPTY_ROOT, null);
         }
 
-        return new BrowserRoot(MEDIA_ID_ROOT, null); // Name visible in Android Auto
+        // tells Android Auto and other browsers that onSearch is implemented
+        Bundle rootExtras = new Bundle();
+        rootExtras.putBoolean(EXTRA_SEARCH_SUPPORTED, true);
+        return new BrowserRoot(MEDIA_ID_ROOT, rootExtras); // Name visible in Android Auto
     }
 
     @Override
     public void onLoadChildren(@NonNull final String parentMediaId,
                                @NonNull final Result<List<MediaItem>> result) {
         FireLog.d(TAG, "(++) onLoadChildren: parentMediaId=" + parentMediaId);
+        loadChildren(parentMediaId, result, -1, -1);
+    }
+
+    @Override
+    public void onLoadChildren(@NonNull final String parentMediaId,
+                               @NonNull final Result<List<MediaItem>> result,
+                               @NonNull Bundle options) {
+        int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, -1);
+        int pageSize = options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, -1);
+        FireLog.d(TAG, "(++) onLoadChildren: parentMediaId=" + parentMediaId
+                + ", page=" + page + ", pageSize=" + pageSize);
+        loadChildren(parentMediaId, result, page, pageSize);
+    }
+
+    /**
+     * Sends the requested page of children, or all of them if page or pageSize is negative.
+     * Only the page crosses the Binder, the full list stays in the provider's cache.
+     */
+    private void loadChildren(@NonNull final String parentMediaId,
+                              @NonNull final Result<List<MediaItem>> result,
+                              final int page, final int pageSize) {
+        List<MediaItem> cachedChildren = musicProvider.getCachedChildren(parentMediaId);
         if (MEDIA_ID_EMPTY_ROOT.equals(parentMediaId)) {
             result.sendResult(new ArrayList<MediaItem>());
+        } else if (cachedChildren != null) {
+            result.sendResult(getPage(cachedChildren, page, pageSize));
         } else {
             // return results when the music library is retrieved
             result.detach();
             musicProvider.retrieveMediaAsync(parentMediaId, new MusicProvider.Callback() {
+                private boolean sent;
+
+                @Override
+                public void onFirstChildren(List<MediaItem> children) {
+                    // a page within the first children doesn't have to wait for the rest
+                    if (page >= 0 && pageSize > 0 && (page + 1) * pageSize <= children.size()) {
+                        result.sendResult(getPage(children, page, pageSize));
+                        sent = true;
+                    }
+                }
+
                 @Override
                 public void onMusicCatalogReady(boolean success) {
-                    result.sendResult(musicProvider.getChildren(parentMediaId));
+                    if (!sent) {
+                        result.sendResult(getPage(musicProvider.getChildren(parentMediaId), page, pageSize));
+                    }
                 }
             });
         }
     }
 
+    /**
+     * Searches for external browsers, e.g. Android Auto, through the same index the app's
+     * own search uses. The result is sent once every section is done, as one flat list.
+     */
+    @Override
+    public void onSearch(@NonNull String query, Bundle extras,
+                         @NonNull final Result<List<MediaItem>> result) {
+        FireLog.d(TAG, "(++) onSearch: query=" + query);
+        result.detach();
+        // one provider per request, so a new query doesn't cancel another client's search
+        new SearchResultProvider().searchNow(query, extras, new SearchResultProvider.SearchCallback() {
+            private List<MediaItem> items = new ArrayList<>();
+
+            @Override
+            public void onSearchResult(@NonNull String query, Bundle bundle,
+                                       @NonNull List<MediaItemWrapper> wrappers) {
+                items = new ArrayList<>();
+                for (MediaItemWrapper wrapper : wrappers) {
+                    // section headers have no media item
+                    if (wrapper.getMediaItem() != null) {
+                        items.add(wrapper.getMediaItem());
+                    }
+                }
+            }
+
+            @Override
+            public void onSearchComplete(@NonNull String query, Bundle bundle) {
+                result.sendResult(items);
+            }
+
+            @Override
+            public void onError(@NonNull String query, Bundle bundle) {
+                result.sendResult(null);
+            }
+        });
+    }
+
+    private List<MediaItem> getPage(List<MediaItem> children, int page, int pageSize) {
+        if (page < 0 || pageSize < 1) {
+            return children;
+        }
+        int fromIndex = page * pageSize;
+        if (fromIndex >= children.size()) {
+            return new ArrayList<>();
+        }
+        int toIndex = Math.min(fromIndex + pageSize, children.size());
+        return new ArrayList<>(children.subList(fromIndex, toIndex));
+    }
+
+    @Override
+    public void onCatalogChanged(Set<String> parentIds) {
+        FireLog.d(TAG, "(++) onCatalogChanged: parentIds=" + parentIds);
+        for (String parentId : parentIds) {
+            notifyChildrenChanged(parentId);
+        }
+    }
+
     @Override
     public void onPlaybackStart() {
         FireLog.d(TAG, "(++) onPlaybackStart");
@@ -6,9 +6,16 @@ import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.text.TextUtils;
 import android.widget.Toast;
 
+import com.firekernel.musicplayer.source.MusicProvider;
 import com.firekernel.musicplayer.utils.FireLog;
+import com.firekernel.musicplayer.utils.LoaderScheduler;
+import com.firekernel.musicplayer.utils.MediaIDHelper;
+import com.firekernel.musicplayer.utils.QueueHelper;
+
+import java.util.List;
 
 /**
  * Manage the interactions among the container service, the queue manager and the actual playback.
@@ -16,12 +23,16 @@ import com.firekernel.musicplayer.utils.FireLog;
 public class PlaybackManager implements Playback.Callback {
 
     private static final String TAG = FireLog.makeLogTag(PlaybackManager.class);
+    // a voice request should have started playback within this, or it is logged as too slow
+    private static final long PLAY_FROM_SEARCH_BUDGET_MILLIS = 300;
     // Action to thumbs up a media item
 
     private MusicPlayerServiceCallback serviceCallback;
     private QueueManager queueManager;
     private Playback playback;
     private MediaSessionCallback mediaSessionCallback;
+    // bumped by every play from search request, a resolved request that isn't the latest is dropped
+    private int playFromSearchRequests;
 
     public PlaybackManager(MusicPlayerServiceCallback serviceCallback,
                            QueueManager queueManager,
@@ -45,8 +56,14 @@ public class PlaybackManager implements Playback.Callback {
         FireLog.d(TAG, "(++) handlePlayRequest: mState=" + playback.getState());
         MediaSessionCompat.QueueItem currentMusic = queueManager.getCurrentMusic();
         if (currentMusic != null) {
+            String mediaId = currentMusic.getDescription().getMediaId();
+            // resuming the track that is already loaded isn't another play of it
+            boolean trackChanged = !TextUtils.equals(mediaId, playback.getCurrentMediaId());
             serviceCallback.onPlaybackStart();
             playback.play(currentMusic);
+            if (trackChanged && mediaId != null) {
+                MusicProvider.getInstance().recordPlay(MediaIDHelper.extractMusicIDFromMediaID(mediaId));
+            }
         }
     }
 
@@ -131,6 +148,18 @@ public class PlaybackManager implements Playback.Callback {
         return actions;
     }
 
+    private void logPlayFromSearchTime(String query, long start, long resolvedAt) {
+        long now = SystemClock.elapsedRealtime();
+        String timing = "query=" + query + ", resolved in " + (resolvedAt - start)
+                + " ms, playback requested after " + (now - start) + " ms";
+        if (now - start > PLAY_FROM_SEARCH_BUDGET_MILLIS) {
+            FireLog.w(TAG, "Play from search over its " + PLAY_FROM_SEARCH_BUDGET_MILLIS
+                    + " ms budget, " + timing);
+        } else {
+            FireLog.d(TAG, "Play from search, " + timing);
+        }
+    }
+
     /**
      * Implementation of the Playback.Callback interface
      */
@@ -160,7 +189,7 @@ public class PlaybackManager implements Playback.Callback {
     @Override
     public void setCurrentMediaId(String mediaId) {
         FireLog.d(TAG, "setCurrentMediaId" + mediaId);
-        queueManager.setQueueFromMusic(mediaId);
+        queueManager.setQueueFromMusic(mediaId, null);
     }
 
     public interface MusicPlayerServiceCallback {
@@ -200,8 +229,12 @@ public class PlaybackManager implements Playback.Callback {
         @Override
         public void onPlayFromMediaId(String mediaId, Bundle extras) {
             FireLog.d(TAG, "(++) onPlayFromMediaId mediaId:" + mediaId + "  extras=" + extras);
-            queueManager.setQueueFromMusic(mediaId);
-            handlePlayRequest();
+            queueManager.setQueueFromMusic(mediaId, new Runnable() {
+                @Override
+                public void run() {
+                    handlePlayRequest();
+                }
+            });
         }
 
         @Override
@@ -243,9 +276,52 @@ public class PlaybackManager implements Playback.Callback {
             FireLog.d(TAG, "(++) onCustomAction: action=" + action);
         }
 
+        /**
+         * Resolves the request against the in-memory search index in the browse lane and
+         * builds its queue in the same job, so the main thread only swaps the queue in and
+         * starts playing.
+         */
         @Override
-        public void onPlayFromSearch(String query, Bundle extras) {
+        public void onPlayFromSearch(final String query, final Bundle extras) {
             FireLog.d(TAG, "(++) onPlayFromSearch,  query=" + query + " extras=" + extras);
+            final long start = SystemClock.elapsedRealtime();
+            final int request = ++playFromSearchRequests;
+            LoaderScheduler.getInstance().submit(LoaderScheduler.Lane.BROWSE, new LoaderScheduler.Job<List<MediaSessionCompat.QueueItem>>() {
+                private String mediaId;
+                private long resolvedAt;
+
+                @Override
+                protected List<MediaSessionCompat.QueueItem> call() throws Exception {
+                    MusicProvider musicProvider = MusicProvider.getInstance();
+                    mediaId = musicProvider.resolvePlayFromSearch(query, extras);
+                    resolvedAt = SystemClock.elapsedRealtime();
+                    return mediaId == null ? null : QueueHelper.getPlayingQueue(mediaId, musicProvider);
+                }
+
+                @Override
+                protected void onResult(List<MediaSessionCompat.QueueItem> queue) {
+                    if (request != playFromSearchRequests) {
+                        FireLog.d(TAG, "Play from search superseded, query=" + query);
+                        return;
+                    }
+                    if (queue == null || queue.isEmpty()) {
+                        FireLog.w(TAG, "Nothing found to play for query=" + query);
+                        updatePlaybackState("Could not find music");
+                        return;
+                    }
+                    queueManager.setQueue(queue, mediaId);
+                    handlePlayRequest();
+                    logPlayFromSearchTime(query, start, resolvedAt);
+                }
+
+                @Override
+                protected void onError(Exception e) {
+                    FireLog.e(TAG, "Play from search failed, query=" + query, e);
+                    if (request == playFromSearchRequests) {
+                        updatePlaybackState("Could not find music");
+                    }
+                }
+            });
         }
     }
 }
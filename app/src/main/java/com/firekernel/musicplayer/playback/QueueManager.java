@@ -6,6 +6,7 @@ import android.support.v4.media.session.MediaSessionCompat;
 
 import com.firekernel.musicplayer.source.MusicProvider;
 import com.firekernel.musicplayer.utils.FireLog;
+import com.firekernel.musicplayer.utils.LoaderScheduler;
 import com.firekernel.musicplayer.utils.MediaIDHelper;
 import com.firekernel.musicplayer.utils.QueueHelper;
 
@@ -24,6 +25,9 @@ public class QueueManager {
 
     private MusicProvider musicProvider;
     private MetadataUpdateListener metadataUpdateListener;
+    private final LoaderScheduler scheduler = LoaderScheduler.getInstance();
+    // bumped by every queue request, a queue built for an older one is dropped
+    private int queueRequests;
 
     // "Now playing" queue:
     private List<MediaSessionCompat.QueueItem> playingQueue;
@@ -89,7 +93,14 @@ public class QueueManager {
         return true;
     }
 
-    public void setQueueFromMusic(String mediaId) {
+    /**
+     * Makes the track of mediaId current. The current queue is reused if it holds the track,
+     * otherwise the queue is built in the browse lane, as the tracks of its parent may have
+     * to be loaded, and set on the main thread.
+     *
+     * @param onQueueSet run on the main thread once the track is current, may be null
+     */
+    public void setQueueFromMusic(final String mediaId, final Runnable onQueueSet) {
         FireLog.d(TAG, "(++) setQueueFromMusic: mediaId=" + mediaId);
 
         // The mediaId used here is not the unique musicId. This one comes from the
@@ -97,13 +108,47 @@ public class QueueManager {
         // the hierarchy in MediaBrowser and the actual unique musicID. This is necessary
         // so we can build the correct playing queue, based on where the track was
         // selected from.
-        boolean canReuseQueue = false;
-        if (isSameBrowsingCategory(mediaId)) {
-            canReuseQueue = setCurrentQueueItem(mediaId);
-        }
-        if (!canReuseQueue) {
-            setCurrentQueue(QueueHelper.getPlayingQueue(mediaId, musicProvider), mediaId);
+        final int request = ++queueRequests;
+        if (isSameBrowsingCategory(mediaId) && setCurrentQueueItem(mediaId)) {
+            updateMetadata();
+            if (onQueueSet != null) {
+                onQueueSet.run();
+            }
+            return;
         }
+        scheduler.submit(LoaderScheduler.Lane.BROWSE, new LoaderScheduler.Job<List<MediaSessionCompat.QueueItem>>() {
+            @Override
+            protected List<MediaSessionCompat.QueueItem> call() {
+                return QueueHelper.getPlayingQueue(mediaId, musicProvider);
+            }
+
+            @Override
+            protected void onResult(List<MediaSessionCompat.QueueItem> queue) {
+                if (request != queueRequests) {
+                    FireLog.d(TAG, "Queue superseded, mediaId=" + mediaId);
+                    return;
+                }
+                if (queue == null) {
+                    metadataUpdateListener.onMetadataRetrieveError();
+                    return;
+                }
+                setCurrentQueue(queue, mediaId);
+                updateMetadata();
+                if (onQueueSet != null) {
+                    onQueueSet.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets a queue already built off the main thread, e.g. for play from search, with the
+     * track of mediaId current. A queue still being built for an earlier request is dropped.
+     */
+    public void setQueue(List<MediaSessionCompat.QueueItem> queue, String mediaId) {
+        FireLog.d(TAG, "(++) setQueue: mediaId=" + mediaId);
+        ++queueRequests;
+        setCurrentQueue(queue, mediaId);
         updateMetadata();
     }
 
@@ -0,0 +1,69 @@
+package com.firekernel.musicplayer.source;
+
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.util.LruCache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Browse results keyed by parent mediaId, so going back to a category is served from memory
+ * and concurrent subscriptions to different parents no longer overwrite each other.
+ * Least recently used parents are evicted once {@link #MAX_PARENTS} is reached.
+ */
+class BrowseCache {
+    private static final int MAX_PARENTS = 32;
+
+    private final LruCache<String, Entry> cache = new LruCache<>(MAX_PARENTS);
+
+    Entry get(String parentId) {
+        return cache.get(parentId);
+    }
+
+    void put(String parentId, Entry entry) {
+        cache.put(parentId, entry);
+    }
+
+    void invalidate(Iterable<String> parentIds) {
+        for (String parentId : parentIds) {
+            cache.remove(parentId);
+        }
+    }
+
+    /**
+     * Drops the category list and every sub category list of category.
+     *
+     * @return the parents dropped
+     */
+    Set<String> invalidateCategory(String category) {
+        Set<String> dropped = new HashSet<>();
+        for (String parentId : cache.snapshot().keySet()) {
+            if (parentId.startsWith(category)) {
+                cache.remove(parentId);
+                dropped.add(parentId);
+            }
+        }
+        return dropped;
+    }
+
+    static class Entry {
+        private final List<MediaMetadataCompat> metadata;
+        private final List<MediaBrowserCompat.MediaItem> items;
+
+        Entry(List<MediaMetadataCompat> metadata, List<MediaBrowserCompat.MediaItem> items) {
+            this.metadata = Collections.unmodifiableList(metadata);
+            this.items = Collections.unmodifiableList(items);
+        }
+
+        List<MediaMetadataCompat> getMetadata() {
+            return metadata;
+        }
+
+        List<MediaBrowserCompat.MediaItem> getItems() {
+            return items;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.firekernel.musicplayer.source;
+
+import com.firekernel.musicplayer.FireApplication;
+import com.firekernel.musicplayer.utils.FireLog;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Versioned binary snapshot of a {@link MusicCatalog}, stored in the app's files dir.
+ * The file is memory-mapped on read, so a warm start only pays for decoding the tracks
+ * instead of walking the whole MediaStore cursor.
+ * <p>
+ * Layout: magic, version, stamp (count, maxId, maxDateModified), then the album, artist and
+ * folder tables of the catalog, each a count followed by its entries, and finally the track
+ * count and one record per track referencing the tables by ordinal. Strings are written as a
+ * byte length followed by UTF-8 bytes, -1 for null.
+ */
+class CatalogSnapshot {
+    private static final String TAG = FireLog.makeLogTag(CatalogSnapshot.class);
+    private static final String FILE_NAME = "catalog.snapshot";
+    private static final int MAGIC = 0x46434154; // "FCAT"
+    private static final int VERSION = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private CatalogSnapshot() {
+    }
+
+    static File getDefaultFile() {
+        return new File(FireApplication.getInstance().getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * @return the catalog stored in file, or null if there is none or it can't be used
+     */
+    static MusicCatalog read(File file) {
+        FireLog.d(TAG, "(++) read, file=" + file);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                FireLog.w(TAG, "Ignoring snapshot with unknown format");
+                return null;
+            }
+            MusicCatalog.Stamp stamp = new MusicCatalog.Stamp(buffer.getInt(), buffer.getLong(), buffer.getLong());
+            MusicCatalog.Builder builder = new MusicCatalog.Builder();
+            int albumCount = buffer.getInt();
+            for (int i = 0; i < albumCount; i++) {
+                builder.addAlbum(buffer.getLong(), readString(buffer), readString(buffer));
+            }
+            int artistCount = buffer.getInt();
+            for (int i = 0; i < artistCount; i++) {
+                builder.addArtist(buffer.getLong(), readString(buffer));
+            }
+            int folderCount = buffer.getInt();
+            for (int i = 0; i < folderCount; i++) {
+                builder.addFolder(readString(buffer));
+            }
+            int trackCount = buffer.getInt();
+            for (int i = 0; i < trackCount; i++) {
+                long id = buffer.getLong();
+                long duration = buffer.getLong();
+                long dateModified = buffer.getLong();
+                int year = buffer.getInt();
+                int album = checkOrdinal(buffer.getInt(), albumCount);
+                int artist = checkOrdinal(buffer.getInt(), artistCount);
+                int folder = buffer.getInt();
+                if (folder != -1) {
+                    checkOrdinal(folder, folderCount);
+                }
+                builder.addTrack(id, duration, dateModified, year, album, artist, folder,
+                        readString(buffer), readString(buffer));
+            }
+            return builder.build(stamp);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            FireLog.e(TAG, "Failed to read catalog snapshot", e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the catalog to a temp file first and renames it, so a crash mid-write never
+     * leaves a half written snapshot behind.
+     */
+    static boolean write(File file, MusicCatalog catalog) {
+        FireLog.d(TAG, "(++) write, file=" + file + ", tracks=" + catalog.size());
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            MusicCatalog.Stamp stamp = catalog.getStamp();
+            out.writeInt(stamp.getCount());
+            out.writeLong(stamp.getMaxId());
+            out.writeLong(stamp.getMaxDateModified());
+            out.writeInt(catalog.getAlbumCount());
+            for (int i = 0; i < catalog.getAlbumCount(); i++) {
+                out.writeLong(catalog.getAlbumIdAt(i));
+                writeString(out, catalog.getAlbumTitleAt(i));
+                writeString(out, catalog.getAlbumArtAt(i));
+            }
+            out.writeInt(catalog.getArtistCount());
+            for (int i = 0; i < catalog.getArtistCount(); i++) {
+                out.writeLong(catalog.getArtistIdAt(i));
+                writeString(out, catalog.getArtistNameAt(i));
+            }
+            out.writeInt(catalog.getFolderCount());
+            for (int i = 0; i < catalog.getFolderCount(); i++) {
+                writeString(out, catalog.getFolderPathAt(i));
+            }
+            out.writeInt(catalog.size());
+            for (int i = 0; i < catalog.size(); i++) {
+                out.writeLong(catalog.getId(i));
+                out.writeLong(catalog.getDuration(i));
+                out.writeLong(catalog.getDateModified(i));
+                out.writeInt(catalog.getYear(i));
+                out.writeInt(catalog.getAlbumOrdinal(i));
+                out.writeInt(catalog.getArtistOrdinal(i));
+                out.writeInt(catalog.getFolderOrdinal(i));
+                writeString(out, catalog.getTitle(i));
+                writeString(out, catalog.getFileName(i));
+            }
+            out.close();
+            out = null;
+            return tmp.renameTo(file);
+        } catch (IOException e) {
+            FireLog.e(TAG, "Failed to write catalog snapshot", e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            if (tmp.exists() && !tmp.delete()) {
+                FireLog.w(TAG, "Could not delete " + tmp);
+            }
+        }
+    }
+
+    private static int checkOrdinal(int ordinal, int count) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IllegalArgumentException("ordinal " + ordinal + " out of " + count);
+        }
+        return ordinal;
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
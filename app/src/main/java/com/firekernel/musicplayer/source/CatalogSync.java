@@ -0,0 +1,59 @@
+package com.firekernel.musicplayer.source;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.provider.MediaStore;
+
+import com.firekernel.musicplayer.utils.FireLog;
+
+/**
+ * Keeps the {@link MusicCatalog} in step with MediaStore without rescanning the library.
+ * The media scanner fires change notifications in bursts, so they are coalesced and a single
+ * incremental sync is run once MediaStore has been quiet for {@link #SYNC_DELAY} ms.
+ */
+public class CatalogSync extends ContentObserver {
+    private static final String TAG = FireLog.makeLogTag(CatalogSync.class);
+    private static final long SYNC_DELAY = 2 * 1000; // 2 seconds
+
+    private final Context context;
+    private final Handler handler;
+    private final MusicProvider musicProvider;
+    private final Runnable syncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            musicProvider.syncCatalogAsync();
+        }
+    };
+
+    public CatalogSync(Context context, Handler handler, MusicProvider musicProvider) {
+        super(handler);
+        this.context = context;
+        this.handler = handler;
+        this.musicProvider = musicProvider;
+    }
+
+    public void register() {
+        FireLog.d(TAG, "(++) register");
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, this);
+        // playlist and genre edits don't touch the media table, but cached lists depend on them
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, true, this);
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI, true, this);
+    }
+
+    public void unregister() {
+        FireLog.d(TAG, "(++) unregister");
+        handler.removeCallbacks(syncRunnable);
+        context.getContentResolver().unregisterContentObserver(this);
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        FireLog.d(TAG, "(++) onChange, selfChange=" + selfChange);
+        handler.removeCallbacks(syncRunnable);
+        handler.postDelayed(syncRunnable, SYNC_DELAY);
+    }
+}
@@ -0,0 +1,125 @@
+package com.firekernel.musicplayer.source;
+
+import android.content.res.Resources;
+import android.os.Bundle;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.firekernel.musicplayer.FireApplication;
+import com.firekernel.musicplayer.R;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Track count, total duration and year span of an album, artist, genre or folder. Summaries
+ * are accumulated while the catalog or an index is built, so listing a category costs no
+ * query per entry.
+ */
+class CategorySummary {
+    private int trackCount;
+    private long duration;
+    // 0 while no track has a year
+    private int firstYear;
+    private int lastYear;
+
+    CategorySummary() {
+    }
+
+    CategorySummary(int trackCount, long duration) {
+        this.trackCount = trackCount;
+        this.duration = duration;
+    }
+
+    /**
+     * @param year release year of the track, 0 if unknown
+     */
+    void add(long duration, int year) {
+        trackCount++;
+        this.duration += duration;
+        if (year > 0) {
+            firstYear = firstYear == 0 ? year : Math.min(firstYear, year);
+            lastYear = Math.max(lastYear, year);
+        }
+    }
+
+    int getTrackCount() {
+        return trackCount;
+    }
+
+    long getDuration() {
+        return duration;
+    }
+
+    int getFirstYear() {
+        return firstYear;
+    }
+
+    int getLastYear() {
+        return lastYear;
+    }
+
+    /**
+     * @return track count and total minutes, formatted by R.string.category_summary
+     */
+    String getSubtitle() {
+        Resources resources = FireApplication.getInstance().getResources();
+        String tracks = resources.getQuantityString(R.plurals.track_count, trackCount, trackCount);
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(duration + TimeUnit.SECONDS.toMillis(30));
+        if (minutes == 0) {
+            return tracks;
+        }
+        return resources.getString(R.string.category_summary, tracks,
+                resources.getString(R.string.duration_minutes, minutes));
+    }
+
+    /**
+     * @return first and last year, a single year if they match, or null if no track has one
+     */
+    String getYearSpan() {
+        if (firstYear == 0) {
+            return null;
+        }
+        if (firstYear == lastYear) {
+            return String.valueOf(firstYear);
+        }
+        return FireApplication.getInstance().getResources()
+                .getString(R.string.year_span, firstYear, lastYear);
+    }
+
+    Bundle toExtras() {
+        Bundle extras = new Bundle();
+        extras.putLong(MusicProviderSource.CUSTOM_METADATA_TRACK_COUNT, trackCount);
+        extras.putLong(MusicProviderSource.CUSTOM_METADATA_TOTAL_DURATION, duration);
+        extras.putLong(MusicProviderSource.CUSTOM_METADATA_FIRST_YEAR, firstYear);
+        extras.putLong(MusicProviderSource.CUSTOM_METADATA_LAST_YEAR, lastYear);
+        return extras;
+    }
+
+    /**
+     * Metadata of a browsable category entry carrying this summary.
+     */
+    MediaMetadataCompat toMetadata(String id, String title, String albumArt) {
+        MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, id)
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
+                .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, getSubtitle())
+                .putLong(MediaMetadataCompat.METADATA_KEY_NUM_TRACKS, trackCount)
+                .putLong(MusicProviderSource.CUSTOM_METADATA_TRACK_COUNT, trackCount)
+                .putLong(MusicProviderSource.CUSTOM_METADATA_TOTAL_DURATION, duration)
+                .putLong(MusicProviderSource.CUSTOM_METADATA_FIRST_YEAR, firstYear)
+                .putLong(MusicProviderSource.CUSTOM_METADATA_LAST_YEAR, lastYear);
+        if (albumArt != null) {
+            builder.putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, albumArt);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Description of a browsable category entry: the summary as subtitle, the year span as
+     * description and all figures in the extras.
+     */
+    MediaDescriptionCompat toDescription(String mediaId, String title, String albumArt) {
+        return DescriptionFactory.create(mediaId, title, getSubtitle(), getYearSpan(), albumArt,
+                null, toExtras());
+    }
+}
@@ -0,0 +1,17 @@
+package com.firekernel.musicplayer.source;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator over rows that are read as it advances, e.g. from an open cursor. Whoever asks a
+ * {@link MusicProviderSource} for one must close it, also when it stops reading early.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Releases whatever the rows are read from; safe to call more than once.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,60 @@
+package com.firekernel.musicplayer.source;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Adapts rows that are already in memory to {@link CloseableIterator}.
+ */
+class CloseableIterators {
+
+    private CloseableIterators() {
+    }
+
+    static <T> CloseableIterator<T> of(final Iterator<T> iterator) {
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+
+            @Override
+            public void close() {
+                // nothing held open
+            }
+        };
+    }
+
+    static <T> CloseableIterator<T> empty() {
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return false;
+            }
+
+            @Override
+            public T next() {
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("remove");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
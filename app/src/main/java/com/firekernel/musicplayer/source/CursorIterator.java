@@ -0,0 +1,62 @@
+package com.firekernel.musicplayer.source;
+
+import android.database.Cursor;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Maps the rows of one cursor as they are read. The cursor is closed as soon as its last row
+ * was read, or when the iterator is closed before that.
+ */
+class CursorIterator<T> implements CloseableIterator<T> {
+    private final RowMapper<T> mapper;
+    private Cursor cursor;
+    private int[] columns;
+    private boolean hasRow;
+
+    /**
+     * @param cursor queried with the mapper's projection, may be null for no rows
+     */
+    CursorIterator(Cursor cursor, RowMapper<T> mapper) {
+        this.cursor = cursor;
+        this.mapper = mapper;
+        hasRow = cursor != null && cursor.moveToFirst();
+        if (hasRow) {
+            columns = mapper.resolve(cursor);
+        } else {
+            close();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasRow;
+    }
+
+    @Override
+    public T next() {
+        if (!hasRow) {
+            throw new NoSuchElementException();
+        }
+        T row = mapper.map(cursor, columns);
+        hasRow = cursor.moveToNext();
+        if (!hasRow) {
+            close();
+        }
+        return row;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close() {
+        hasRow = false;
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.firekernel.musicplayer.source;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.text.TextUtils;
+
+/**
+ * Builds {@link MediaDescriptionCompat}s straight from track fields, with the hierarchy-aware
+ * media id passed in. This replaces copying a whole MediaMetadataCompat through its Builder
+ * only to change the id and then asking the copy for its description.
+ * <p>
+ * Texts are filled the way {@link MediaMetadataCompat#getDescription()} does it: the first
+ * three non empty of title, artist and album become title, subtitle and description.
+ */
+public class DescriptionFactory {
+
+    private DescriptionFactory() {
+    }
+
+    public static MediaDescriptionCompat create(String mediaId, String title, String artist,
+                                                String album, String albumArt, String mediaUri) {
+        return create(mediaId, title, artist, album, albumArt, mediaUri, null);
+    }
+
+    public static MediaDescriptionCompat create(String mediaId, String title, String artist,
+                                                String album, String albumArt, String mediaUri,
+                                                Bundle extras) {
+        CharSequence[] texts = new CharSequence[3];
+        int count = addText(texts, 0, title);
+        count = addText(texts, count, artist);
+        addText(texts, count, album);
+        return new MediaDescriptionCompat.Builder()
+                .setMediaId(mediaId)
+                .setTitle(texts[0])
+                .setSubtitle(texts[1])
+                .setDescription(texts[2])
+                .setIconUri(albumArt == null ? null : Uri.parse(albumArt))
+                .setMediaUri(mediaUri == null ? null : Uri.parse(mediaUri))
+                .setExtras(extras)
+                .build();
+    }
+
+    private static int addText(CharSequence[] texts, int count, String text) {
+        if (TextUtils.isEmpty(text)) {
+            return count;
+        }
+        texts[count] = text;
+        return count + 1;
+    }
+
+    /**
+     * Description of metadata under a different media id, e.g. a hierarchy-aware one.
+     */
+    public static MediaDescriptionCompat create(String mediaId, MediaMetadataCompat metadata) {
+        return create(mediaId,
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE),
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST),
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM),
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI),
+                metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI));
+    }
+}
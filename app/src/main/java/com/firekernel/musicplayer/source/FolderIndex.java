@@ -0,0 +1,205 @@
+package com.firekernel.musicplayer.source;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folder tree of a {@link MusicCatalog}, built in one pass over its tracks.
+ * <p>
+ * Folders are ordered by path followed by a separator, so every folder is directly followed by
+ * all of its descendants. Tracks are laid out in the same order, which gives each folder one
+ * contiguous range holding its own tracks first and then those of its sub folders. Counts and
+ * durations of a whole sub tree are read from that range without walking it.
+ * <p>
+ * Folders without tracks of their own and with a single sub folder, e.g. /storage/emulated,
+ * are skipped when browsing: their sub folder is listed in their place.
+ */
+class FolderIndex {
+    private static final String SEPARATOR = "/";
+    private static final int[] NONE = new int[0];
+
+    // folders in tree order, each path followed by the separator
+    private final String[] keys;
+    private final String[] paths;
+    // ranges into tracks: own tracks in [start, directEnd), sub tree in [start, end)
+    private final int[] starts;
+    private final int[] directEnds;
+    private final int[] ends;
+    private final int[][] children;
+    private final int[] roots;
+
+    // catalog positions of the tracks in tree order, title order within a folder
+    private final int[] tracks;
+    // durationSums[i] is the total duration of tracks[0, i)
+    private final long[] durationSums;
+
+    /**
+     * @param folderPaths folder table of the catalog
+     * @param folders     folder ordinal of every track, -1 for none
+     * @param durations   duration of every track
+     */
+    FolderIndex(String[] folderPaths, int[] folders, long[] durations) {
+        // every folder with tracks plus all of its ancestors
+        Map<String, Boolean> all = new HashMap<>();
+        for (String path : folderPaths) {
+            String folder = path;
+            while (folder.length() > 0 && all.put(folder, Boolean.TRUE) == null) {
+                int slash = folder.lastIndexOf(SEPARATOR);
+                folder = slash < 0 ? "" : folder.substring(0, slash);
+            }
+        }
+        keys = new String[all.size()];
+        int count = 0;
+        for (String path : all.keySet()) {
+            keys[count++] = path + SEPARATOR;
+        }
+        Arrays.sort(keys);
+        paths = new String[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            paths[i] = keys[i].substring(0, keys[i].length() - 1);
+        }
+
+        int[] nodeOfFolder = new int[folderPaths.length];
+        for (int i = 0; i < folderPaths.length; i++) {
+            nodeOfFolder[i] = find(folderPaths[i]);
+        }
+
+        // counting sort of the tracks by folder, stable so titles stay in order
+        int[] directCounts = new int[keys.length];
+        for (int folder : folders) {
+            // an empty path, e.g. the root of an older snapshot, isn't a folder of the tree
+            if (folder >= 0 && nodeOfFolder[folder] >= 0) {
+                directCounts[nodeOfFolder[folder]]++;
+            }
+        }
+        starts = new int[keys.length];
+        directEnds = new int[keys.length];
+        int offset = 0;
+        for (int i = 0; i < keys.length; i++) {
+            starts[i] = offset;
+            offset += directCounts[i];
+            directEnds[i] = offset;
+        }
+        tracks = new int[offset];
+        int[] next = Arrays.copyOf(starts, starts.length);
+        for (int position = 0; position < folders.length; position++) {
+            if (folders[position] >= 0 && nodeOfFolder[folders[position]] >= 0) {
+                tracks[next[nodeOfFolder[folders[position]]]++] = position;
+            }
+        }
+        durationSums = new long[tracks.length + 1];
+        for (int i = 0; i < tracks.length; i++) {
+            durationSums[i + 1] = durationSums[i] + durations[tracks[i]];
+        }
+
+        // parents come before their descendants, so one backward pass closes every sub tree
+        int[] parents = new int[keys.length];
+        int[] childCounts = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            int slash = paths[i].lastIndexOf(SEPARATOR);
+            parents[i] = slash <= 0 ? -1 : find(paths[i].substring(0, slash));
+            if (parents[i] >= 0) {
+                childCounts[parents[i]]++;
+            }
+        }
+        ends = Arrays.copyOf(directEnds, directEnds.length);
+        for (int i = keys.length - 1; i >= 0; i--) {
+            if (parents[i] >= 0) {
+                ends[parents[i]] = Math.max(ends[parents[i]], ends[i]);
+            }
+        }
+
+        // link every listed folder to its closest listed ancestor
+        List<List<Integer>> childLists = new ArrayList<>(keys.length);
+        List<Integer> rootList = new ArrayList<>();
+        int[] listedAncestors = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            childLists.add(null);
+            int parent = parents[i];
+            listedAncestors[i] = parent < 0 ? -1 : (isListed(parent, childCounts) ? parent : listedAncestors[parent]);
+            if (!isListed(i, childCounts) || ends[i] == starts[i]) {
+                continue;
+            }
+            if (listedAncestors[i] < 0) {
+                rootList.add(i);
+            } else {
+                if (childLists.get(listedAncestors[i]) == null) {
+                    childLists.set(listedAncestors[i], new ArrayList<Integer>());
+                }
+                childLists.get(listedAncestors[i]).add(i);
+            }
+        }
+        children = new int[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            children[i] = childLists.get(i) == null ? NONE : toIntArray(childLists.get(i));
+        }
+        roots = toIntArray(rootList);
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private boolean isListed(int node, int[] childCounts) {
+        return directEnds[node] > starts[node] || childCounts[node] > 1;
+    }
+
+    /**
+     * @return node of the folder at path, or -1 if no track is stored below it
+     */
+    int find(String path) {
+        int index = Arrays.binarySearch(keys, path + SEPARATOR);
+        return index < 0 ? -1 : index;
+    }
+
+    int[] getRoots() {
+        return roots;
+    }
+
+    int[] getChildren(int node) {
+        return children[node];
+    }
+
+    String getPath(int node) {
+        return paths[node];
+    }
+
+    String getName(int node) {
+        return paths[node].substring(paths[node].lastIndexOf(SEPARATOR) + 1);
+    }
+
+    /**
+     * @return catalog positions of the tracks directly in this folder, in title order
+     */
+    int[] getDirectTracks(int node) {
+        return Arrays.copyOfRange(tracks, starts[node], directEnds[node]);
+    }
+
+    /**
+     * @return catalog position of the first track in this folder or below, for its art
+     */
+    int getFirstTrack(int node) {
+        return tracks[starts[node]];
+    }
+
+    /**
+     * @return number of tracks in this folder and all of its sub folders
+     */
+    int getTrackCount(int node) {
+        return ends[node] - starts[node];
+    }
+
+    /**
+     * @return total duration of the tracks in this folder and all of its sub folders
+     */
+    long getDuration(int node) {
+        return durationSums[ends[node]] - durationSums[starts[node]];
+    }
+}
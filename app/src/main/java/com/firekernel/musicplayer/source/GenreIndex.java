@@ -0,0 +1,162 @@
+package com.firekernel.musicplayer.source;
+
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.firekernel.musicplayer.utils.FireLog;
+import com.firekernel.musicplayer.utils.MediaIDHelper;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_GENRE;
+
+/**
+ * Genre membership resolved against one {@link MusicCatalog}, loaded by
+ * {@link LocalSource#queryGenreIndex(MusicCatalog)} in a single pass. Every genre holds the
+ * sorted catalog positions of its tracks, so both the genre list and a genre's tracks are
+ * served without another MediaStore query. Genres without a track of the catalog are dropped.
+ */
+class GenreIndex {
+    private static final String TAG = FireLog.makeLogTag(GenreIndex.class);
+
+    private final MusicCatalog catalog;
+    // non empty genres, in the order they were given
+    private final long[] genreIds;
+    private final String[] names;
+    private final int[][] tracks;
+    private final CategorySummary[] summaries;
+
+    /**
+     * @param tracks catalog positions of the members of every genre, in any order
+     */
+    GenreIndex(MusicCatalog catalog, long[] genreIds, String[] names, int[][] tracks) {
+        this.catalog = catalog;
+        int count = 0;
+        for (int[] members : tracks) {
+            if (members.length > 0) {
+                count++;
+            }
+        }
+        this.genreIds = new long[count];
+        this.names = new String[count];
+        this.tracks = new int[count][];
+        this.summaries = new CategorySummary[count];
+        int genre = 0;
+        for (int i = 0; i < genreIds.length; i++) {
+            if (tracks[i].length == 0) {
+                continue;
+            }
+            this.genreIds[genre] = genreIds[i];
+            this.names[genre] = names[i];
+            // positions follow the catalog's title order
+            this.tracks[genre] = dedupe(tracks[i]);
+            summaries[genre] = new CategorySummary();
+            for (int track : this.tracks[genre]) {
+                summaries[genre].add(catalog.getDuration(track), catalog.getYear(track));
+            }
+            genre++;
+        }
+        FireLog.d(TAG, "(++) GenreIndex, genres=" + genreIds.length + ", non empty=" + count);
+    }
+
+    private static int[] dedupe(int[] positions) {
+        int[] sorted = Arrays.copyOf(positions, positions.length);
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    MusicCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Same contract as {@link MusicCatalog#getChildren(String)} for the genre category and
+     * its sub categories.
+     */
+    List<MediaMetadataCompat> getChildren(String mediaId) {
+        FireLog.d(TAG, "(++) getChildren, mediaId=" + mediaId);
+        if (MEDIA_ID_GENRE.equals(mediaId)) {
+            return new GenreList();
+        }
+        String[] hierarchy = MediaIDHelper.getHierarchy(mediaId);
+        if (hierarchy.length < 2 || !MEDIA_ID_GENRE.equals(hierarchy[0])) {
+            FireLog.w(TAG, "unmatched mediaId: " + mediaId);
+            return new ArrayList<>();
+        }
+        for (int i = 0; i < genreIds.length; i++) {
+            if (hierarchy[1].equals(String.valueOf(genreIds[i]))) {
+                return catalog.getTracksAt(tracks[i]);
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Matches a spoken genre name by its {@link SearchIndex#normalize(String) search key}, so
+     * "hip hop" finds "Hip-Hop": an equal key first, else the first genre whose key contains it.
+     *
+     * @return genre sub category mediaId, or null if no genre matches
+     */
+    String findGenre(String name) {
+        String key = name == null ? "" : SearchIndex.normalize(name);
+        if (key.isEmpty()) {
+            return null;
+        }
+        int found = -1;
+        for (int i = 0; i < genreIds.length; i++) {
+            String genreKey = names[i] == null ? "" : SearchIndex.normalize(names[i]);
+            if (genreKey.equals(key)) {
+                found = i;
+                break;
+            } else if (found < 0 && genreKey.contains(key)) {
+                found = i;
+            }
+        }
+        return found < 0 ? null
+                : MediaIDHelper.createMediaID(null, MEDIA_ID_GENRE, String.valueOf(genreIds[found]));
+    }
+
+    private class GenreList extends AbstractList<MediaMetadataCompat>
+            implements RandomAccess, MusicCatalog.ChildList {
+
+        @Override
+        public MediaMetadataCompat get(int index) {
+            return summaries[index].toMetadata(String.valueOf(genreIds[index]), names[index],
+                    getAlbumArt(index));
+        }
+
+        @Override
+        public int size() {
+            return genreIds.length;
+        }
+
+        @Override
+        public String getChildId(int index) {
+            return String.valueOf(genreIds[index]);
+        }
+
+        @Override
+        public MediaDescriptionCompat getDescription(int index, String mediaId) {
+            return summaries[index].toDescription(mediaId, names[index], getAlbumArt(index));
+        }
+
+        private String getAlbumArt(int index) {
+            return catalog.getAlbumArtAt(catalog.getAlbumOrdinal(tracks[index][0]));
+        }
+
+        @Override
+        public String toString() {
+            return "GenreList{size=" + size() + "}";
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.firekernel.musicplayer.source;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.firekernel.musicplayer.FireApplication;
+import com.firekernel.musicplayer.utils.FireLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the rows of a query in chunks, each one a separate query that continues after the
+ * last row of the previous chunk (keyset pagination) instead of moving one huge cursor past
+ * its CursorWindow, which makes the provider re-run the statement for every window it refills.
+ * <p>
+ * Rows are ordered by an optional sort column and then by a unique key column, and a chunk
+ * is read and closed before it is handed out, so no cursor stays open between calls. The next
+ * chunk is only queried once the current one is used up.
+ * <p>
+ * The key column may be qualified with its table where the uri is served from a join, e.g.
+ * playlist members: the clauses use the qualified name, the projection the bare column.
+ */
+class KeysetIterator<T> implements CloseableIterator<T> {
+    private static final String TAG = FireLog.makeLogTag(KeysetIterator.class);
+    static final int CHUNK_SIZE = 1000;
+    static final ChunkQuery CONTENT_RESOLVER = new ChunkQuery() {
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            return FireApplication.getInstance().getContentResolver()
+                    .query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+    };
+
+    private final ChunkQuery chunkQuery;
+    private final Uri uri;
+    private final RowMapper<T> mapper;
+    private final String selection;
+    private final String[] selectionArgs;
+    // null to order by the key column alone
+    private final String sortColumn;
+    private final String keyColumn;
+    private final String[] projection;
+
+    private List<T> chunk = new ArrayList<>();
+    private int next;
+    private boolean exhausted;
+    private boolean started;
+    private String lastSortValue;
+    private long lastKey;
+
+    KeysetIterator(Uri uri, RowMapper<T> mapper, String selection, String[] selectionArgs,
+                   String sortColumn, String keyColumn) {
+        this(CONTENT_RESOLVER, uri, mapper, selection, selectionArgs, sortColumn, keyColumn);
+    }
+
+    KeysetIterator(ChunkQuery chunkQuery, Uri uri, RowMapper<T> mapper, String selection,
+                   String[] selectionArgs, String sortColumn, String keyColumn) {
+        this.chunkQuery = chunkQuery;
+        this.uri = uri;
+        this.mapper = mapper;
+        this.selection = selection;
+        this.selectionArgs = selectionArgs == null ? new String[0] : selectionArgs;
+        this.sortColumn = sortColumn;
+        this.keyColumn = keyColumn;
+        // the mapper's columns, then the keys of the row, read back by position
+        String[] columns = mapper.getProjection();
+        projection = Arrays.copyOf(columns, columns.length + 2);
+        String keyName = keyColumn.substring(keyColumn.lastIndexOf('.') + 1);
+        projection[columns.length] = sortColumn == null ? keyName : sortColumn;
+        projection[columns.length + 1] = keyName;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == chunk.size() && !exhausted) {
+            readChunk();
+        }
+        return next < chunk.size();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return chunk.get(next++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close() {
+        // no cursor is open between chunks, just stop reading more
+        exhausted = true;
+        chunk = new ArrayList<>();
+        next = 0;
+    }
+
+    private void readChunk() {
+        List<String> args = new ArrayList<>(Arrays.asList(selectionArgs));
+        String where = selection;
+        if (started) {
+            where = where == null ? getKeysetClause(args) : "(" + where + ") AND " + getKeysetClause(args);
+        }
+        String sortOrder = (sortColumn == null ? "" : sortColumn + " ASC, ")
+                + keyColumn + " ASC LIMIT " + CHUNK_SIZE;
+
+        chunk = new ArrayList<>(CHUNK_SIZE);
+        next = 0;
+        Cursor cursor = chunkQuery.query(uri, projection, where,
+                args.toArray(new String[args.size()]), sortOrder);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                int[] columns = mapper.resolve(cursor);
+                do {
+                    chunk.add(mapper.map(cursor, columns));
+                } while (cursor.moveToNext());
+                cursor.moveToLast();
+                lastSortValue = cursor.getString(projection.length - 2);
+                lastKey = cursor.getLong(projection.length - 1);
+            }
+            cursor.close();
+        }
+        started = true;
+        exhausted = chunk.size() < CHUNK_SIZE;
+        FireLog.d(TAG, "(++) readChunk, uri=" + uri + ", rows=" + chunk.size());
+    }
+
+    /**
+     * @return condition for the rows after the last one read, its arguments added to args
+     */
+    private String getKeysetClause(List<String> args) {
+        if (sortColumn == null) {
+            args.add(String.valueOf(lastKey));
+            return keyColumn + " > ?";
+        }
+        if (lastSortValue == null) {
+            // nulls sort first, so every non null value comes after them
+            args.add(String.valueOf(lastKey));
+            return "(" + sortColumn + " IS NOT NULL OR (" + sortColumn + " IS NULL AND "
+                    + keyColumn + " > ?))";
+        }
+        args.add(lastSortValue);
+        args.add(lastSortValue);
+        args.add(String.valueOf(lastKey));
+        return "(" + sortColumn + " > ? OR (" + sortColumn + " = ? AND " + keyColumn + " > ?))";
+    }
+
+    /**
+     * Runs the query of one chunk, against the content resolver unless tests replace it.
+     */
+    interface ChunkQuery {
+        Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                     String sortOrder);
+    }
+}
@@ -1,8 +1,9 @@
 package com.firekernel.musicplayer.source;
 
-import android.content.ContentUris;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.v4.media.MediaMetadataCompat;
 
@@ -11,10 +12,20 @@ import com.firekernel.musicplayer.utils.FireLog;
 import com.firekernel.musicplayer.utils.MediaIDHelper;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ALBUM;
 import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ARTIST;
@@ -28,284 +39,559 @@ import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_TRACKS;
 
 public class LocalSource implements MusicProviderSource {
     private static final String TAG = FireLog.makeLogTag(LocalSource.class);
+    // members of every genre, one row per genre and track
+    private static final Uri GENRE_MEMBERS_URI =
+            Uri.parse("content://media/external/audio/genres/all/members");
+    // album art of an album is this followed by its id, as ContentUris.withAppendedId would build it
+    private static final String ALBUM_ART_URI = "content://media/external/audio/albumart/";
+    // MediaProvider's table of playlist members, joined with the audio table to list them
+    private static final String PLAYLIST_MAP_TABLE = "audio_playlists_map";
+    // id ranges the catalog is read in concurrently, 1 reads it in a single pass
+    static final int CATALOG_LOAD_THREADS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    // libraries smaller than this aren't worth splitting
+    private static final int MIN_ROWS_PER_RANGE = 2 * KeysetIterator.CHUNK_SIZE;
+    // reads the ranges of every load, separate from LoaderScheduler as the loading thread
+    // waits for them; idle threads go away between loads
+    private static final ThreadPoolExecutor CATALOG_EXECUTOR = createCatalogExecutor();
+
+    private static final RowMapper<MediaMetadataCompat> PLAYLIST_MAPPER =
+            categoryMapper(MediaStore.Audio.Playlists._ID, MediaStore.Audio.Playlists.NAME);
+    private static final RowMapper<MediaMetadataCompat> ARTIST_MAPPER =
+            categoryMapper(MediaStore.Audio.Artists._ID, MediaStore.Audio.Artists.ARTIST);
+    private static final RowMapper<MediaMetadataCompat> GENRE_MAPPER =
+            categoryMapper(MediaStore.Audio.Genres._ID, MediaStore.Audio.Genres.NAME);
+    private static final RowMapper<MediaMetadataCompat> ALBUM_MAPPER = new RowMapper<MediaMetadataCompat>(
+            MediaStore.Audio.Albums._ID, MediaStore.Audio.Albums.ALBUM, MediaStore.Audio.Albums.ALBUM_ART) {
+        @Override
+        MediaMetadataCompat map(Cursor cursor, int[] columns) {
+            return new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, cursor.getString(columns[0]))
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, cursor.getString(columns[1]))
+                    .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, cursor.getString(columns[2]))
+                    .build();
+        }
+    };
+    private static final RowMapper<MediaMetadataCompat> ALBUM_SEARCH_MAPPER = new RowMapper<MediaMetadataCompat>(
+            MediaStore.Audio.Albums._ID, MediaStore.Audio.Albums.ALBUM, MediaStore.Audio.Albums.ARTIST,
+            MediaStore.Audio.Albums.ALBUM_ART) {
+        @Override
+        MediaMetadataCompat map(Cursor cursor, int[] columns) {
+            return new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, cursor.getString(columns[0]))
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, cursor.getString(columns[1]))
+                    .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, cursor.getString(columns[2]))
+                    .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, cursor.getString(columns[3]))
+                    .build();
+        }
+    };
+    private static final RowMapper<MediaMetadataCompat> TRACK_MAPPER =
+            trackMapper(MediaStore.Audio.Media._ID);
+    private static final RowMapper<MediaMetadataCompat> PLAYLIST_TRACK_MAPPER =
+            trackMapper(MediaStore.Audio.Playlists.Members.AUDIO_ID);
+
+    // runs the queries the catalog is read with, tests answer them from rows in memory
+    private final KeysetIterator.ChunkQuery catalogQuery;
 
     public LocalSource() {
+        this(KeysetIterator.CONTENT_RESOLVER);
+    }
+
+    LocalSource(KeysetIterator.ChunkQuery catalogQuery) {
+        this.catalogQuery = catalogQuery;
     }
 
     @Override
-    public Iterator<MediaMetadataCompat> iterator(String mediaId) {
+    public CloseableIterator<MediaMetadataCompat> iterator(String mediaId) {
         FireLog.d(TAG, "(++) iterator, mediaId=" + mediaId);
 
         if (MEDIA_ID_ROOT.equals(mediaId)) {
-            return new ArrayList<MediaMetadataCompat>().iterator();
+            return CloseableIterators.empty();
 
         } else if (MEDIA_ID_TRACKS.equals(mediaId)) {
-            List<MediaMetadataCompat> tracks = getLocalTracks();
-            return tracks.iterator();
+            return getLocalTracks();
         } else if (MEDIA_ID_PLAYLIST.equals(mediaId)) {
-            return getLocalPlayLists().iterator();
+            return getLocalPlayLists();
         } else if (MEDIA_ID_ALBUM.equals(mediaId)) {
-            return getLocalAlbums().iterator();
+            return getLocalAlbums();
         } else if (MEDIA_ID_ARTIST.equals(mediaId)) {
-            return getLocalArtists().iterator();
+            return getLocalArtists();
         } else if (MEDIA_ID_GENRE.equals(mediaId)) {
-            return getLocalGenres().iterator();
+            return getLocalGenres();
         } else if (MEDIA_ID_FOLDER.equals(mediaId)) {
-            return getLocalFolders().iterator();
-        } else if (mediaId.startsWith(MEDIA_ID_PLAYLIST) || mediaId.startsWith(MEDIA_ID_ALBUM)
-                || mediaId.startsWith(MEDIA_ID_ARTIST) || mediaId.startsWith(MEDIA_ID_GENRE)
-                || mediaId.startsWith(MEDIA_ID_FOLDER)) {
+            // the folder tree is only built with the catalog, MusicProvider serves it from there
+            FireLog.w(TAG, "folders need the catalog");
+            return CloseableIterators.empty();
+        } else if (mediaId.startsWith(MEDIA_ID_PLAYLIST) || mediaId.startsWith(MEDIA_ID_FOLDER) || mediaId.startsWith(MEDIA_ID_ALBUM)
+                || mediaId.startsWith(MEDIA_ID_ARTIST) || mediaId.startsWith(MEDIA_ID_GENRE)) {
             String category = MediaIDHelper.getHierarchy(mediaId)[0];
             String subCategory = MediaIDHelper.getHierarchy(mediaId)[1];
-            return getTracksBySubCategory(category, subCategory).iterator();
+            return getTracksBySubCategory(category, subCategory);
         } else {
             FireLog.w(TAG, "unmatched mediaId: " + mediaId);
-            return new ArrayList<MediaMetadataCompat>().iterator();
+            return CloseableIterators.empty();
         }
     }
 
-    private List<MediaMetadataCompat> getLocalPlayLists() {
-        FireLog.d(TAG, "(++) getLocalPlayLists");
+    /**
+     * Reads the count, largest id and latest modification time of the music rows in one
+     * aggregate row, which is far cheaper than loading the catalog and is enough to tell
+     * whether a stored snapshot is still current.
+     */
+    MusicCatalog.Stamp queryStamp() {
+        FireLog.d(TAG, "(++) queryStamp");
 
-        List<MediaMetadataCompat> playlists = new ArrayList<>();
-        Uri playlistUri = MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
-        String selection = null;
-        String[] selectionArgs = null;
-        String sortOrder = MediaStore.Audio.Playlists.NAME + " ASC";
+        Uri songsUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        String[] projection = {"count(" + MediaStore.Audio.Media._ID + ")",
+                "max(" + MediaStore.Audio.Media._ID + ")",
+                "max(" + MediaStore.Audio.Media.DATE_MODIFIED + ")"};
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != ?";
+        String[] selectionArgs = {"0"};
 
+        try {
+            Cursor cursor = FireApplication.getInstance().getContentResolver()
+                    .query(songsUri, projection, selection, selectionArgs, null);
+            if (cursor != null) {
+                try {
+                    if (cursor.moveToFirst()) {
+                        // max is null without rows, read back as 0
+                        return new MusicCatalog.Stamp(cursor.getInt(0), cursor.getLong(1),
+                                cursor.getLong(2));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // newer MediaStore versions reject expressions in the projection
+            FireLog.w(TAG, "aggregate query not supported: " + e.getMessage());
+        }
+        return walkStamp(songsUri, selection, selectionArgs);
+    }
+
+    /**
+     * Same as {@link #queryStamp()} for providers that can't aggregate, walks the id and
+     * modification time of every row.
+     */
+    private MusicCatalog.Stamp walkStamp(Uri songsUri, String selection, String[] selectionArgs) {
+        String[] projection = {MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATE_MODIFIED};
         Cursor cursor = FireApplication.getInstance().getContentResolver()
-                .query(playlistUri, projection, selection, selectionArgs, sortOrder);
+                .query(songsUri, projection, selection, selectionArgs, null);
 
+        int count = 0;
+        long maxId = 0;
+        long maxDateModified = 0;
         if (cursor != null) {
             if (cursor.moveToFirst()) {
                 do {
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Playlists._ID)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Playlists.NAME)))
-                            .build();
-                    playlists.add(mediaMetadataCompat);
+                    count++;
+                    maxId = Math.max(maxId, cursor.getLong(0));
+                    maxDateModified = Math.max(maxDateModified, cursor.getLong(1));
                 } while (cursor.moveToNext());
             }
             cursor.close();
         }
-        return playlists;
+        return new MusicCatalog.Stamp(count, maxId, maxDateModified);
     }
 
-    private List<MediaMetadataCompat> getLocalTracks() {
-        FireLog.d(TAG, "(++) getLocalTracks");
-
-        return getTracksBySubCategory(MediaIDHelper.MEDIA_ID_TRACKS, MediaIDHelper.MEDIA_ID_TRACKS_ALL);
+    /**
+     * Loads every playable track, along with the album and artist ids the
+     * {@link MusicCatalog} needs to derive the other browse categories.
+     */
+    MusicCatalog loadCatalog() {
+        return loadCatalog(CATALOG_LOAD_THREADS);
     }
 
+    /**
+     * Splits the _ID space into up to threads ranges and reads and decodes them concurrently,
+     * each into its own builder. The builders are merged in id order, so the catalog is the
+     * same as the one read in a single pass.
+     */
+    MusicCatalog loadCatalog(int threads) {
+        FireLog.d(TAG, "(++) loadCatalog, threads=" + threads);
+        long start = SystemClock.elapsedRealtime();
 
-    private List<MediaMetadataCompat> getLocalAlbums() {
-        FireLog.d(TAG, "(++) getLocalAlbums");
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != ?";
+        String[] selectionArgs = {"0"};
+        int count = queryTrackCount();
+        if (count >= 0) {
+            threads = Math.min(threads, count / MIN_ROWS_PER_RANGE);
+        }
+        long minId = queryBoundaryId(selection, selectionArgs, "ASC");
+        long maxId = queryBoundaryId(selection, selectionArgs, "DESC");
+        if (threads <= 1 || maxId - minId < threads) {
+            MusicCatalog catalog = queryCatalogTracks(selection, selectionArgs);
+            FireLog.d(TAG, "Catalog loaded in one pass, tracks=" + catalog.size()
+                    + ", took=" + (SystemClock.elapsedRealtime() - start) + "ms");
+            return catalog;
+        }
 
-        List<MediaMetadataCompat> albums = new ArrayList<>();
-        Uri albumUri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
-        String selection = null;
-        String[] selectionArgs = null;
-        String sortOrder = MediaStore.Audio.Albums.ALBUM + " ASC";
+        final String rangeSelection = selection + " AND " + MediaStore.Audio.Media._ID + " >= ? AND "
+                + MediaStore.Audio.Media._ID + " < ?";
+        List<Callable<MusicCatalog.Builder>> ranges = new ArrayList<>(threads);
+        long span = maxId - minId + 1;
+        for (int i = 0; i < threads; i++) {
+            final String[] rangeArgs = {"0", String.valueOf(minId + span * i / threads),
+                    String.valueOf(minId + span * (i + 1) / threads)};
+            ranges.add(new Callable<MusicCatalog.Builder>() {
+                @Override
+                public MusicCatalog.Builder call() {
+                    return readCatalogTracks(rangeSelection, rangeArgs);
+                }
+            });
+        }
 
-        Cursor cursor = FireApplication.getInstance().getContentResolver()
-                .query(albumUri, projection, selection, selectionArgs, sortOrder);
+        try {
+            MusicCatalog.Builder merged = new MusicCatalog.Builder(Math.max(count, 1));
+            for (Future<MusicCatalog.Builder> range : CATALOG_EXECUTOR.invokeAll(ranges)) {
+                merged.addAll(range.get());
+            }
+            MusicCatalog catalog = merged.build();
+            FireLog.d(TAG, "Catalog loaded in " + threads + " ranges, tracks=" + catalog.size()
+                    + ", took=" + (SystemClock.elapsedRealtime() - start) + "ms");
+            return catalog;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Catalog range failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Catalog load interrupted", e);
+        }
+    }
+
+    private static ThreadPoolExecutor createCatalogExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(CATALOG_LOAD_THREADS,
+                CATALOG_LOAD_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        return new Thread(runnable, "Catalog range #" + count.incrementAndGet());
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
+    /**
+     * @param direction ASC for the smallest id, DESC for the largest
+     * @return the id, or 0 if there is no row
+     */
+    private long queryBoundaryId(String selection, String[] selectionArgs, String direction) {
+        Cursor cursor = catalogQuery.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Audio.Media._ID}, selection, selectionArgs,
+                MediaStore.Audio.Media._ID + " " + direction + " LIMIT 1");
+        long id = 0;
         if (cursor != null) {
             if (cursor.moveToFirst()) {
-                do {
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums._ID)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART)))
-                            .build();
-                    albums.add(mediaMetadataCompat);
-                } while (cursor.moveToNext());
+                id = cursor.getLong(0);
             }
             cursor.close();
         }
-        return albums;
+        return id;
     }
 
-    private List<MediaMetadataCompat> getLocalArtists() {
-        FireLog.d(TAG, "(++) getLocalArtists");
-        List<MediaMetadataCompat> artists = new ArrayList<>();
-        Uri albumUri = MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
-        String selection = null;
-        String[] selectionArgs = null;
-        String sortOrder = MediaStore.Audio.Artists.ARTIST + " ASC";
+    /**
+     * Only the rows added or modified since the stamp was taken. DATE_MODIFIED has a
+     * resolution of one second, so rows from the watermark second itself are read again.
+     */
+    MusicCatalog queryChangedTracks(MusicCatalog.Stamp since) {
+        FireLog.d(TAG, "(++) queryChangedTracks, since=" + since);
+
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != ? AND ("
+                + MediaStore.Audio.Media.DATE_MODIFIED + " >= ? OR "
+                + MediaStore.Audio.Media._ID + " > ?)";
+        String[] selectionArgs = {"0", String.valueOf(since.getMaxDateModified()),
+                String.valueOf(since.getMaxId())};
+        return queryCatalogTracks(selection, selectionArgs);
+    }
+
+    /**
+     * @return number of music rows, or -1 if the provider doesn't support counting
+     */
+    int queryTrackCount() {
+        FireLog.d(TAG, "(++) queryTrackCount");
+
+        Uri songsUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        String[] projection = {"count(" + MediaStore.Audio.Media._ID + ")"};
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != ?";
+        String[] selectionArgs = {"0"};
+
+        int count = -1;
+        try {
+            Cursor cursor = catalogQuery.query(songsUri, projection, selection, selectionArgs, null);
+            if (cursor != null) {
+                if (cursor.moveToFirst()) {
+                    count = cursor.getInt(0);
+                }
+                cursor.close();
+            }
+        } catch (IllegalArgumentException e) {
+            // newer MediaStore versions reject expressions in the projection
+            FireLog.w(TAG, "count query not supported: " + e.getMessage());
+        }
+        return count;
+    }
+
+    Set<String> queryTrackIds() {
+        FireLog.d(TAG, "(++) queryTrackIds");
+
+        Uri songsUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+        String[] projection = {MediaStore.Audio.Media._ID};
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != ?";
+        String[] selectionArgs = {"0"};
 
         Cursor cursor = FireApplication.getInstance().getContentResolver()
-                .query(albumUri, projection, selection, selectionArgs, sortOrder);
+                .query(songsUri, projection, selection, selectionArgs, null);
 
+        Set<String> ids = new HashSet<>();
         if (cursor != null) {
             if (cursor.moveToFirst()) {
                 do {
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Artists._ID)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Artists.ARTIST)))
-                            .build();
-                    artists.add(mediaMetadataCompat);
+                    ids.add(cursor.getString(0));
                 } while (cursor.moveToNext());
             }
             cursor.close();
         }
+        return ids;
+    }
+
+    /**
+     * Reads the rows in chunks ordered by id; the catalog sorts them by title itself.
+     */
+    private MusicCatalog queryCatalogTracks(String selection, String[] selectionArgs) {
+        return readCatalogTracks(selection, selectionArgs).build();
+    }
+
+    private MusicCatalog.Builder readCatalogTracks(String selection, String[] selectionArgs) {
+        final MusicCatalog.Builder tracks = new MusicCatalog.Builder();
+        // rows go straight into the builder, nothing is kept per chunk
+        RowMapper<Void> mapper = new RowMapper<Void>(
+                MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.DATA,
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media.ARTIST,
+                MediaStore.Audio.Media.ALBUM,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.ALBUM_ID,
+                MediaStore.Audio.Media.ARTIST_ID,
+                MediaStore.Audio.Media.DATE_MODIFIED,
+                MediaStore.Audio.Media.YEAR) {
+            @Override
+            Void map(Cursor cursor, int[] columns) {
+                long albumId = cursor.getLong(columns[6]);
+                tracks.add(cursor.getLong(columns[0]), cursor.getString(columns[1]),
+                        cursor.getString(columns[2]), cursor.getString(columns[3]),
+                        cursor.getString(columns[4]), cursor.getLong(columns[5]),
+                        getAlbumArt(albumId), albumId, cursor.getLong(columns[7]),
+                        cursor.getLong(columns[8]), cursor.getInt(columns[9]));
+                return null;
+            }
+        };
+        Iterator<Void> rows = new KeysetIterator<>(catalogQuery, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                mapper, selection, selectionArgs, null, MediaStore.Audio.Media._ID);
+        while (rows.hasNext()) {
+            rows.next();
+        }
+        return tracks;
+    }
+
+    private CloseableIterator<MediaMetadataCompat> getLocalPlayLists() {
+        FireLog.d(TAG, "(++) getLocalPlayLists");
 
-        return artists;
+        String sortOrder = MediaStore.Audio.Playlists.NAME + " ASC";
+        return queryLazily(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, PLAYLIST_MAPPER, null, null, sortOrder);
+    }
+
+    private CloseableIterator<MediaMetadataCompat> getLocalTracks() {
+        FireLog.d(TAG, "(++) getLocalTracks");
+
+        return getTracksBySubCategory(MediaIDHelper.MEDIA_ID_TRACKS, MediaIDHelper.MEDIA_ID_TRACKS_ALL);
+    }
+
+
+    private CloseableIterator<MediaMetadataCompat> getLocalAlbums() {
+        FireLog.d(TAG, "(++) getLocalAlbums");
+
+        String sortOrder = MediaStore.Audio.Albums.ALBUM + " ASC";
+        return queryLazily(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, ALBUM_MAPPER, null, null, sortOrder);
+    }
+
+    private CloseableIterator<MediaMetadataCompat> getLocalArtists() {
+        FireLog.d(TAG, "(++) getLocalArtists");
+
+        String sortOrder = MediaStore.Audio.Artists.ARTIST + " ASC";
+        return queryLazily(MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI, ARTIST_MAPPER, null, null, sortOrder);
     }
 
-    private List<MediaMetadataCompat> getLocalGenres() {
+    private CloseableIterator<MediaMetadataCompat> getLocalGenres() {
         FireLog.d(TAG, "(++) getLocalGenres");
 
-        List<MediaMetadataCompat> genres = new ArrayList<>();
-        Uri albumUri = MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
-        String selection = null;
-        String[] selectionArgs = null;
         String sortOrder = MediaStore.Audio.Genres.NAME + " ASC";
+        return queryLazily(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI, GENRE_MAPPER, null, null, sortOrder);
+    }
+
+    /**
+     * @return rows mapped as the iterator advances, over a cursor that stays open until then
+     */
+    private <T> CloseableIterator<T> queryLazily(Uri uri, RowMapper<T> mapper, String selection,
+                                                 String[] selectionArgs, String sortOrder) {
+        Cursor cursor = FireApplication.getInstance().getContentResolver()
+                .query(uri, mapper.getProjection(), selection, selectionArgs, sortOrder);
+        return new CursorIterator<>(cursor, mapper);
+    }
 
+    /**
+     * Maps every row of a query, resolving the mapper's columns once for the whole cursor.
+     *
+     * @param signal cancels the query even while the provider is running it, null if it
+     *               can't be cancelled
+     * @throws android.os.OperationCanceledException if it was cancelled
+     */
+    private <T> List<T> query(Uri uri, RowMapper<T> mapper, String selection,
+                              String[] selectionArgs, String sortOrder, CancellationSignal signal) {
+        List<T> rows = new ArrayList<>();
         Cursor cursor = FireApplication.getInstance().getContentResolver()
-                .query(albumUri, projection, selection, selectionArgs, sortOrder);
+                .query(uri, mapper.getProjection(), selection, selectionArgs, sortOrder, signal);
 
         if (cursor != null) {
             if (cursor.moveToFirst()) {
+                int[] columns = mapper.resolve(cursor);
                 do {
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Genres._ID)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Genres.NAME)))
-                            .build();
-                    genres.add(mediaMetadataCompat);
+                    rows.add(mapper.map(cursor, columns));
                 } while (cursor.moveToNext());
             }
             cursor.close();
-
         }
-        return genres;
-    }
-
-    // filter genre to remove genre with no playable media item
-//    private List<MediaMetadataCompat> filterGenres(List<MediaMetadataCompat> genres) {
-//        FireLog.d(TAG, "(++) filterGenres");
-//
-//        if (genres == null) {
-//            return null;
-//        }
-//        Iterator iterator = genres.iterator();
-//        while (iterator.hasNext()) {
-//            MediaMetadataCompat genre = (MediaMetadataCompat) iterator.next();
-//            Uri songsUri = getUri(genre);
-//            String[] projection = {
-//                    MediaStore.Audio.Media._ID
-//            };
-//            String selection = null;
-//            String[] selectionArgs = null;
-//            String sortOrder = null;
-//
-//            Cursor cursor = FireApplication.getInstance().getContentResolver()
-//                    .query(songsUri, projection, selection, selectionArgs, sortOrder);
-//
-//            if (cursor != null) {
-//                if (!cursor.moveToFirst()) {
-//                    iterator.remove();
-//                }
-//                cursor.close();
-//            }
-//        }
-//        return genres;
-//    }
-
-    private List<MediaMetadataCompat> getLocalFolders() {
-        FireLog.d(TAG, "(++) getLocalFolders");
-        List<MediaMetadataCompat> folders = new ArrayList<>();
+        return rows;
+    }
 
-        Uri songsUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != ?";
-        String[] selectionArgs = {"0"};
-        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
+    /**
+     * Resolves the members of every genre against the catalog. All memberships are read in one
+     * bulk query; providers that reject the bulk uri get one members query per genre instead.
+     */
+    GenreIndex queryGenreIndex(MusicCatalog catalog) {
+        FireLog.d(TAG, "(++) queryGenreIndex, catalog=" + catalog.size());
 
+        String[] projection = {MediaStore.Audio.Genres._ID, MediaStore.Audio.Genres.NAME};
+        String sortOrder = MediaStore.Audio.Genres.NAME + " ASC";
         Cursor cursor = FireApplication.getInstance().getContentResolver()
-                .query(songsUri, projection, selection, selectionArgs, sortOrder);
+                .query(MediaStore.Audio.Genres.EXTERNAL_CONTENT_URI, projection, null, null, sortOrder);
 
-        // Using set for finding distinct folder
-        Set<String> set = new HashSet<>();
+        List<Long> genreIds = new ArrayList<>();
+        List<String> names = new ArrayList<>();
         if (cursor != null) {
             if (cursor.moveToFirst()) {
                 do {
-                    String data = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA));
-                    String path = data.substring(0, data.lastIndexOf("/"));
-                    if (set.add(path)) {
-                        MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                        path)
-                                .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                        path.substring(path.lastIndexOf("/") + 1, path.length()))
-                                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
-                                        getAlbumArt(cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID))))
-                                .build();
-                        folders.add(mediaMetadataCompat);
-                    }
+                    genreIds.add(cursor.getLong(0));
+                    names.add(cursor.getString(1));
                 } while (cursor.moveToNext());
             }
             cursor.close();
         }
-        return folders;
-    }
-
-    private List<MediaMetadataCompat> getTracksBySubCategory(String category, String subCategory) {
-        FireLog.d(TAG, "(++) getTracksBySubCategory, category=" + category + ", subCategory=" + subCategory);
 
-        if (category == null || subCategory == null) {
-            return null;
+        Map<Long, Integer> genres = new HashMap<>();
+        List<List<Integer>> members = new ArrayList<>(genreIds.size());
+        for (int i = 0; i < genreIds.size(); i++) {
+            genres.put(genreIds.get(i), i);
+            members.add(new ArrayList<Integer>());
+        }
+        if (!queryAllGenreMembers(catalog, genres, members)) {
+            for (int i = 0; i < genreIds.size(); i++) {
+                queryGenreMembers(catalog, genreIds.get(i), members.get(i));
+            }
         }
 
-        List<MediaMetadataCompat> medias = new ArrayList<>();
+        long[] ids = new long[genreIds.size()];
+        int[][] tracks = new int[genreIds.size()][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = genreIds.get(i);
+            List<Integer> positions = members.get(i);
+            tracks[i] = new int[positions.size()];
+            for (int j = 0; j < tracks[i].length; j++) {
+                tracks[i][j] = positions.get(j);
+            }
+        }
+        return new GenreIndex(catalog, ids, names.toArray(new String[names.size()]), tracks);
+    }
 
-        Uri songsUri = getUri(category, subCategory);
-        String[] projection = getProjection(category, subCategory);
-        String selection = getSelection(category, subCategory);
-        String[] selectionArgs = null;
-        String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
-        String idColumnName = get_IDColumnName(category);
+    /**
+     * @return false if the provider doesn't serve the members of all genres at once
+     */
+    private boolean queryAllGenreMembers(MusicCatalog catalog, Map<Long, Integer> genres,
+                                         List<List<Integer>> members) {
+        String[] projection = {MediaStore.Audio.Genres.Members.AUDIO_ID,
+                MediaStore.Audio.Genres.Members.GENRE_ID};
+        Cursor cursor;
+        try {
+            cursor = FireApplication.getInstance().getContentResolver()
+                    .query(GENRE_MEMBERS_URI, projection, null, null, null);
+        } catch (RuntimeException e) {
+            FireLog.w(TAG, "bulk genre members not supported: " + e);
+            return false;
+        }
+        if (cursor == null) {
+            return false;
+        }
+        if (cursor.moveToFirst()) {
+            do {
+                Integer genre = genres.get(cursor.getLong(1));
+                int position = catalog.indexOf(cursor.getLong(0));
+                if (genre != null && position >= 0) {
+                    members.get(genre).add(position);
+                }
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return true;
+    }
 
+    private void queryGenreMembers(MusicCatalog catalog, long genreId, List<Integer> members) {
+        String[] projection = {MediaStore.Audio.Genres.Members.AUDIO_ID};
         Cursor cursor = FireApplication.getInstance().getContentResolver()
-                .query(songsUri, projection, selection, selectionArgs, sortOrder);
-
+                .query(MediaStore.Audio.Genres.Members.getContentUri("external", genreId),
+                        projection, null, null, null);
         if (cursor != null) {
             if (cursor.moveToFirst()) {
                 do {
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(idColumnName)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_ARTIST,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST)))
-                            .putLong(MediaMetadataCompat.METADATA_KEY_DURATION,
-                                    cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
-                                    getAlbumArt(cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID))))
-                            .build();
-                    medias.add(mediaMetadataCompat);
+                    int position = catalog.indexOf(cursor.getLong(0));
+                    if (position >= 0) {
+                        members.add(position);
+                    }
                 } while (cursor.moveToNext());
             }
             cursor.close();
         }
+    }
+
+    /**
+     * Streams the tracks in title order, a chunk at a time, as the iterator is read.
+     */
+    private CloseableIterator<MediaMetadataCompat> getTracksBySubCategory(String category, String subCategory) {
+        FireLog.d(TAG, "(++) getTracksBySubCategory, category=" + category + ", subCategory=" + subCategory);
+
+        if (category == null || subCategory == null) {
+            return CloseableIterators.empty();
+        }
+
+        RowMapper<MediaMetadataCompat> mapper = category.equals(MEDIA_ID_PLAYLIST)
+                ? PLAYLIST_TRACK_MAPPER : TRACK_MAPPER;
+        // title order through TITLE_KEY, which MediaStore indexes unlike TITLE
+        return new KeysetIterator<>(getUri(category, subCategory), mapper, getSelection(category),
+                getSelectionArgs(category, subCategory), MediaStore.Audio.Media.TITLE_KEY,
+                getKeyColumn(category));
+    }
 
-        return medias;
+    /**
+     * For playlist members the key is their row in the playlist, as a track may appear twice.
+     * That query joins the playlist map with the audio table, both having an _id, so the key
+     * is qualified with its table; the projection map doesn't rewrite the selection.
+     */
+    private static String getKeyColumn(String category) {
+        if (category.equals(MEDIA_ID_PLAYLIST)) {
+            return PLAYLIST_MAP_TABLE + "." + MediaStore.Audio.Playlists.Members._ID;
+        }
+        return MediaStore.Audio.Media._ID;
     }
 
     // uri and selection combination filters the media by subcategory
@@ -323,188 +609,113 @@ public class LocalSource implements MusicProviderSource {
         return uri;
     }
 
-    private String[] getProjection(String category, String subCategory) {
-
-        if (category.equals(MEDIA_ID_PLAYLIST)) {
-            String[] projection = {
-                    MediaStore.Audio.Media._ID,
-                    MediaStore.Audio.Playlists.Members.AUDIO_ID,
-                    MediaStore.Audio.Media.DATA,
-                    MediaStore.Audio.Media.DISPLAY_NAME,
-                    MediaStore.Audio.Media.DATE_ADDED,
-                    MediaStore.Audio.Media.TITLE,
-                    MediaStore.Audio.Media.DURATION,
-                    MediaStore.Audio.Media.ALBUM_ID,
-                    MediaStore.Audio.Media.YEAR,
-                    MediaStore.Audio.Media.ARTIST};
-            return projection;
-        } else {
-            String[] projection = {
-                    MediaStore.Audio.Media._ID,
-                    MediaStore.Audio.Media.DATA,
-                    MediaStore.Audio.Media.DISPLAY_NAME,
-                    MediaStore.Audio.Media.DATE_ADDED,
-                    MediaStore.Audio.Media.TITLE,
-                    MediaStore.Audio.Media.DURATION,
-                    MediaStore.Audio.Media.ALBUM_ID,
-                    MediaStore.Audio.Media.YEAR,
-                    MediaStore.Audio.Media.ARTIST};
-            return projection;
-        }
-
-    }
-
-    private String getSelection(String category, String subCategory) {
-        FireLog.d(TAG, "(++) getSelection, category= " + category + ", subCategory=" + subCategory);
-        String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
+    // the sub category is always bound as an argument, never spliced into the statement
+    private String getSelection(String category) {
+        String selection = MediaStore.Audio.Media.IS_MUSIC + " != ?";
 
         if (category.equals(MEDIA_ID_ALBUM)) {
-            selection += " AND " + MediaStore.Audio.Media.ALBUM_ID + " == " + subCategory;
+            selection += " AND " + MediaStore.Audio.Media.ALBUM_ID + " = ?";
         } else if (category.equals(MEDIA_ID_ARTIST)) {
-            selection += " AND " + MediaStore.Audio.Media.ARTIST_ID + " == " + subCategory;
+            selection += " AND " + MediaStore.Audio.Media.ARTIST_ID + " = ?";
         } else if (category.equals(MEDIA_ID_FOLDER)) {
-            // in case of folder subcategory = path
-            selection += " AND " + MediaStore.Audio.Media.DATA + " LIKE '" + subCategory + "%'";
+            // the folder's own tracks, not those of its sub folders
+            selection += " AND " + MediaStore.Audio.Media.DATA + " LIKE ? ESCAPE '\\' AND "
+                    + MediaStore.Audio.Media.DATA + " NOT LIKE ? ESCAPE '\\'";
         }
         return selection;
     }
 
-    private String get_IDColumnName(String category) {
-        String columnName;
-        if (category.equals(MEDIA_ID_PLAYLIST)) {
-            columnName = MediaStore.Audio.Playlists.Members.AUDIO_ID;
-        } else {
-            columnName = MediaStore.Audio.Media._ID;
+    private String[] getSelectionArgs(String category, String subCategory) {
+        if (category.equals(MEDIA_ID_ALBUM) || category.equals(MEDIA_ID_ARTIST)) {
+            return new String[]{"0", subCategory};
+        } else if (category.equals(MEDIA_ID_FOLDER)) {
+            String folder = escapeLike(subCategory) + "/%";
+            return new String[]{"0", folder, folder + "/%"};
         }
-        return columnName;
+        return new String[]{"0"};
     }
 
-    private String getAlbumArt(int albumId) {
-        FireLog.d(TAG, "(++) getAlbumArt, albumArt= " + albumId);
-
-        return ContentUris.withAppendedId(Uri.parse("content://media/external/audio/albumart"), albumId).toString();
-//        String albumArt = null;
-//        Uri albumUri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
-//        String[] projection = {MediaStore.Audio.Albums.ALBUM_ART};
-//        String selection = MediaStore.Audio.Albums._ID + " == ?";
-//        String[] selectionArgs = {albumId + ""};
-//
-//        Cursor cursor = FireApplication.getInstance().getContentResolver()
-//                .query(albumUri, projection, selection, selectionArgs, null);
-//        if (cursor != null) {
-//            if (cursor.moveToFirst()) {
-//                albumArt = cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART));
-//            }
-//            cursor.close();
-//        }
-//
-//        return albumArt;
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
+    private static String getAlbumArt(long albumId) {
+        return ALBUM_ART_URI + albumId;
+    }
 
-    public List<MediaMetadataCompat> searchTracks(String query, int limit) {
+    public List<MediaMetadataCompat> searchTracks(String query, int limit, CancellationSignal signal) {
         FireLog.d(TAG, "(++) searchTracks");
 
-        List<MediaMetadataCompat> medias = new ArrayList<>();
-        Uri songsUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
         String selection = MediaStore.Audio.Media.IS_MUSIC + " != ? AND " + MediaStore.Audio.Media.TITLE + " LIKE ?";
         String[] selectionArgs = {"0", "%" + query + "%"};
         String sortOrder = MediaStore.Audio.Media.TITLE + " ASC LIMIT " + limit;
-
-        Cursor cursor = FireApplication.getInstance().getContentResolver()
-                .query(songsUri, projection, selection, selectionArgs, sortOrder);
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                do {
-
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media._ID)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.DATA)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.TITLE)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_ARTIST,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST)))
-                            .putLong(MediaMetadataCompat.METADATA_KEY_DURATION,
-                                    cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.DURATION)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
-                                    getAlbumArt(cursor.getInt(cursor.getColumnIndex(MediaStore.Audio.Media.ALBUM_ID))))
-                            .build();
-                    medias.add(mediaMetadataCompat);
-                } while (cursor.moveToNext());
-            }
-            cursor.close();
-        }
-
-        return medias;
+        return query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, TRACK_MAPPER, selection, selectionArgs, sortOrder, signal);
     }
 
-    public List<MediaMetadataCompat> searchAlbums(String query, int limit) {
+    public List<MediaMetadataCompat> searchAlbums(String query, int limit, CancellationSignal signal) {
         FireLog.d(TAG, "(++) searchAlbums");
-        List<MediaMetadataCompat> albums = new ArrayList<>();
 
-        Uri albumUri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
         String selection = MediaStore.Audio.Albums.ALBUM + " LIKE ?";
         String[] selectionArgs = {"%" + query + "%"};
         String sortOrder = MediaStore.Audio.Albums.ALBUM + " ASC LIMIT " + limit;
-
-        Cursor cursor = FireApplication.getInstance().getContentResolver().
-                query(albumUri, projection, selection, selectionArgs, sortOrder);
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                do {
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums._ID)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_ARTIST,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Media.ARTIST)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Albums.ALBUM_ART)))
-                            .build();
-                    albums.add(mediaMetadataCompat);
-                } while (cursor.moveToNext());
-            }
-            cursor.close();
-
-        }
-        return albums;
+        return query(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, ALBUM_SEARCH_MAPPER, selection, selectionArgs, sortOrder, signal);
     }
 
-    public List<MediaMetadataCompat> searchArtists(String query, int limit) {
+    public List<MediaMetadataCompat> searchArtists(String query, int limit, CancellationSignal signal) {
         FireLog.d(TAG, "(++) searchArtists");
-        List<MediaMetadataCompat> artists = new ArrayList<>();
 
-        Uri albumUri = MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI;
-        String[] projection = {"*"};
         String selection = MediaStore.Audio.Artists.ARTIST + " LIKE ?";
         String[] selectionArgs = {"%" + query + "%"};
         String sortOrder = MediaStore.Audio.Artists.ARTIST + " ASC LIMIT " + limit;
+        return query(MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI, ARTIST_MAPPER, selection, selectionArgs, sortOrder, signal);
+    }
 
-        Cursor cursor = FireApplication.getInstance().getContentResolver().
-                query(albumUri, projection, selection, selectionArgs, sortOrder);
+    public List<MediaMetadataCompat> searchPlaylists(String query, int limit, CancellationSignal signal) {
+        FireLog.d(TAG, "(++) searchPlaylists");
 
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                do {
-                    MediaMetadataCompat mediaMetadataCompat = new MediaMetadataCompat.Builder()
-                            .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Artists._ID)))
-                            .putString(MediaMetadataCompat.METADATA_KEY_TITLE,
-                                    cursor.getString(cursor.getColumnIndex(MediaStore.Audio.Artists.ARTIST)))
-                            .build();
-                    artists.add(mediaMetadataCompat);
-                } while (cursor.moveToNext());
+        String selection = MediaStore.Audio.Playlists.NAME + " LIKE ?";
+        String[] selectionArgs = {"%" + query + "%"};
+        String sortOrder = MediaStore.Audio.Playlists.NAME + " ASC LIMIT " + limit;
+        return query(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, PLAYLIST_MAPPER, selection, selectionArgs, sortOrder, signal);
+    }
+
+    /**
+     * Id and title of a browsable category row, e.g. a playlist or genre.
+     */
+    private static RowMapper<MediaMetadataCompat> categoryMapper(String idColumn, String titleColumn) {
+        return new RowMapper<MediaMetadataCompat>(idColumn, titleColumn) {
+            @Override
+            MediaMetadataCompat map(Cursor cursor, int[] columns) {
+                return new MediaMetadataCompat.Builder()
+                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, cursor.getString(columns[0]))
+                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, cursor.getString(columns[1]))
+                        .build();
             }
-            cursor.close();
-        }
+        };
+    }
 
-        return artists;
+    /**
+     * A playable track; members of a playlist are keyed by their audio id, not their row id.
+     */
+    private static RowMapper<MediaMetadataCompat> trackMapper(String idColumn) {
+        return new RowMapper<MediaMetadataCompat>(idColumn,
+                MediaStore.Audio.Media.DATA,
+                MediaStore.Audio.Media.TITLE,
+                MediaStore.Audio.Media.ARTIST,
+                MediaStore.Audio.Media.DURATION,
+                MediaStore.Audio.Media.ALBUM_ID) {
+            @Override
+            MediaMetadataCompat map(Cursor cursor, int[] columns) {
+                return new MediaMetadataCompat.Builder()
+                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, cursor.getString(columns[0]))
+                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, cursor.getString(columns[1]))
+                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, cursor.getString(columns[2]))
+                        .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, cursor.getString(columns[3]))
+                        .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, cursor.getLong(columns[4]))
+                        .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI,
+                                getAlbumArt(cursor.getLong(columns[5])))
+                        .build();
+            }
+        };
     }
 }
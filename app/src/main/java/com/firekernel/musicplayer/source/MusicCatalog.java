@@ -0,0 +1,983 @@
+package com.firekernel.musicplayer.source;
+
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.firekernel.musicplayer.utils.FireLog;
+import com.firekernel.musicplayer.utils.MediaIDHelper;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ALBUM;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ARTIST;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_FOLDER;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_TRACKS;
+
+/**
+ * Immutable in-memory view of the local music library.
+ * Tracks, albums, artists and folders are all derived from the track table, so browsing them
+ * never needs another MediaStore query. Genres are resolved against it by {@link GenreIndex};
+ * only playlists still come from {@link LocalSource}.
+ * <p>
+ * Tracks are stored column by column in primitive arrays, sorted by title. Albums, artists
+ * and folders are stored once in small tables and referenced by ordinal, and a track's path
+ * only keeps the file name next to its folder ordinal. {@link MediaMetadataCompat} objects
+ * are built on demand, for the items that are actually read.
+ */
+public class MusicCatalog {
+    private static final String TAG = FireLog.makeLogTag(MusicCatalog.class);
+
+    private final Stamp stamp;
+
+    // track columns, indexed by position in title order
+    private final long[] ids;
+    private final long[] durations;
+    private final long[] datesModified;
+    // 0 if unknown
+    private final int[] years;
+    private final int[] albums;
+    private final int[] artists;
+    // -1 if the path has no folder
+    private final int[] folders;
+    private final String[] titles;
+    private final String[] fileNames;
+
+    // album, artist and folder tables, indexed by ordinal
+    private final long[] albumIds;
+    private final String[] albumTitles;
+    private final String[] albumArts;
+    private final long[] artistIds;
+    private final String[] artistNames;
+    private final String[] folderPaths;
+    // summaries by album and artist ordinal, shared by the ordinals of one album or artist id
+    private final CategorySummary[] albumSummaries;
+    private final CategorySummary[] artistSummaries;
+    // positions of the tracks of every album and artist id, in title order
+    private final Map<Long, int[]> albumTracks;
+    private final Map<Long, int[]> artistTracks;
+
+    // ids in ascending order and the position of each, for lookups by musicId
+    private final long[] sortedIds;
+    private final int[] sortedPositions;
+
+    private final FolderIndex folderIndex;
+
+    private final List<MediaMetadataCompat> allTracks;
+
+    private MusicCatalog(Stamp stamp, Builder builder) {
+        final String[] builderTitles = builder.titles;
+        Integer[] order = new Integer[builder.size];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // stable, so tracks with the same title keep the order they were added in
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return compareIgnoreCase(builderTitles[lhs], builderTitles[rhs]);
+            }
+        });
+
+        int size = order.length;
+        ids = new long[size];
+        durations = new long[size];
+        datesModified = new long[size];
+        years = new int[size];
+        albums = new int[size];
+        artists = new int[size];
+        folders = new int[size];
+        titles = new String[size];
+        fileNames = new String[size];
+        long maxId = 0;
+        long maxDateModified = 0;
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            ids[i] = builder.ids[from];
+            durations[i] = builder.durations[from];
+            datesModified[i] = builder.datesModified[from];
+            years[i] = builder.years[from];
+            albums[i] = builder.albums[from];
+            artists[i] = builder.artists[from];
+            folders[i] = builder.folders[from];
+            titles[i] = builder.titles[from];
+            fileNames[i] = builder.fileNames[from];
+            maxId = Math.max(maxId, ids[i]);
+            maxDateModified = Math.max(maxDateModified, datesModified[i]);
+        }
+        // computed from the rows unless given, so it matches LocalSource.queryStamp exactly
+        this.stamp = stamp != null ? stamp : new Stamp(size, maxId, maxDateModified);
+
+        albumIds = toLongArray(builder.albumIds);
+        albumTitles = builder.albumTitles.toArray(new String[builder.albumTitles.size()]);
+        albumArts = builder.albumArts.toArray(new String[builder.albumArts.size()]);
+        artistIds = toLongArray(builder.artistIds);
+        artistNames = builder.artistNames.toArray(new String[builder.artistNames.size()]);
+        folderPaths = builder.folderPaths.toArray(new String[builder.folderPaths.size()]);
+        albumSummaries = summarize(albums, albumIds);
+        artistSummaries = summarize(artists, artistIds);
+        albumTracks = groupPositions(albums, albumIds);
+        artistTracks = groupPositions(artists, artistIds);
+
+        Integer[] byId = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return ids[lhs] < ids[rhs] ? -1 : (ids[lhs] == ids[rhs] ? 0 : 1);
+            }
+        });
+        sortedIds = new long[size];
+        sortedPositions = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = ids[byId[i]];
+            sortedPositions[i] = byId[i];
+        }
+
+        folderIndex = new FolderIndex(folderPaths, folders, durations);
+        allTracks = new TrackList(null);
+    }
+
+    /**
+     * Sums up the tracks of every album or artist in one pass over the track columns.
+     */
+    private CategorySummary[] summarize(int[] ordinals, long[] categoryIds) {
+        Map<Long, CategorySummary> byId = new HashMap<>();
+        CategorySummary[] summaries = new CategorySummary[categoryIds.length];
+        for (int i = 0; i < categoryIds.length; i++) {
+            summaries[i] = byId.get(categoryIds[i]);
+            if (summaries[i] == null) {
+                summaries[i] = new CategorySummary();
+                byId.put(categoryIds[i], summaries[i]);
+            }
+        }
+        for (int track = 0; track < ordinals.length; track++) {
+            summaries[ordinals[track]].add(durations[track], years[track]);
+        }
+        return summaries;
+    }
+
+    /**
+     * Positions of the tracks of every album or artist id in two passes over the track
+     * column, so opening one is a lookup rather than a scan of every track.
+     */
+    private static Map<Long, int[]> groupPositions(int[] ordinals, long[] categoryIds) {
+        Map<Long, int[]> counts = new HashMap<>();
+        for (int ordinal : ordinals) {
+            int[] count = counts.get(categoryIds[ordinal]);
+            if (count == null) {
+                count = new int[1];
+                counts.put(categoryIds[ordinal], count);
+            }
+            count[0]++;
+        }
+        Map<Long, int[]> positions = new HashMap<>();
+        for (Map.Entry<Long, int[]> count : counts.entrySet()) {
+            positions.put(count.getKey(), new int[count.getValue()[0]]);
+            // reused as the fill index of the second pass
+            count.getValue()[0] = 0;
+        }
+        for (int track = 0; track < ordinals.length; track++) {
+            long id = categoryIds[ordinals[track]];
+            positions.get(id)[counts.get(id)[0]++] = track;
+        }
+        return positions;
+    }
+
+    private static long[] toLongArray(List<Long> values) {
+        long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private static int compareIgnoreCase(String lhs, String rhs) {
+        if (lhs == null) {
+            return rhs == null ? 0 : -1;
+        }
+        if (rhs == null) {
+            return 1;
+        }
+        return lhs.compareToIgnoreCase(rhs);
+    }
+
+    private static boolean equalsNullable(Object lhs, Object rhs) {
+        return lhs == null ? rhs == null : lhs.equals(rhs);
+    }
+
+    private static long parseId(String musicId) {
+        try {
+            return Long.parseLong(musicId);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public Stamp getStamp() {
+        return stamp;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return every track in title order; entries are materialized as they are read
+     */
+    public List<MediaMetadataCompat> getTracks() {
+        return allTracks;
+    }
+
+    public boolean contains(String musicId) {
+        return indexOf(parseId(musicId)) >= 0;
+    }
+
+    /**
+     * @return the track with this musicId, or null if it is not part of the catalog
+     */
+    public MediaMetadataCompat getMusic(String musicId) {
+        int position = indexOf(parseId(musicId));
+        return position < 0 ? null : getTrack(position);
+    }
+
+    /**
+     * @return catalog position of the track with this id, or -1
+     */
+    int indexOf(long id) {
+        int index = Arrays.binarySearch(sortedIds, id);
+        return index < 0 ? -1 : sortedPositions[index];
+    }
+
+    /**
+     * @return the tracks at these catalog positions, materialized as they are read
+     */
+    List<MediaMetadataCompat> getTracksAt(int[] positions) {
+        return new TrackList(positions);
+    }
+
+    long getId(int track) {
+        return ids[track];
+    }
+
+    long getDuration(int track) {
+        return durations[track];
+    }
+
+    long getDateModified(int track) {
+        return datesModified[track];
+    }
+
+    int getYear(int track) {
+        return years[track];
+    }
+
+    int getAlbumOrdinal(int track) {
+        return albums[track];
+    }
+
+    int getArtistOrdinal(int track) {
+        return artists[track];
+    }
+
+    int getFolderOrdinal(int track) {
+        return folders[track];
+    }
+
+    String getTitle(int track) {
+        return titles[track];
+    }
+
+    String getFileName(int track) {
+        return fileNames[track];
+    }
+
+    int getAlbumCount() {
+        return albumIds.length;
+    }
+
+    long getAlbumIdAt(int album) {
+        return albumIds[album];
+    }
+
+    String getAlbumTitleAt(int album) {
+        return albumTitles[album];
+    }
+
+    String getAlbumArtAt(int album) {
+        return albumArts[album];
+    }
+
+    int getArtistCount() {
+        return artistIds.length;
+    }
+
+    long getArtistIdAt(int artist) {
+        return artistIds[artist];
+    }
+
+    String getArtistNameAt(int artist) {
+        return artistNames[artist];
+    }
+
+    int getFolderCount() {
+        return folderPaths.length;
+    }
+
+    String getFolderPathAt(int folder) {
+        return folderPaths[folder];
+    }
+
+    private String getFolderPath(int track) {
+        return folders[track] < 0 ? null : folderPaths[folders[track]];
+    }
+
+    private String getData(int track) {
+        String folder = getFolderPath(track);
+        return folder == null ? fileNames[track] : folder + "/" + fileNames[track];
+    }
+
+    private MediaMetadataCompat getTrack(int track) {
+        MediaMetadataCompat.Builder builder = new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, String.valueOf(ids[track]))
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_URI, getData(track))
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, titles[track])
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artistNames[artists[track]])
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, albumTitles[albums[track]])
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, durations[track])
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, albumArts[albums[track]])
+                .putLong(MusicProviderSource.CUSTOM_METADATA_ALBUM_ID, albumIds[albums[track]])
+                .putLong(MusicProviderSource.CUSTOM_METADATA_ARTIST_ID, artistIds[artists[track]])
+                .putLong(MusicProviderSource.CUSTOM_METADATA_DATE_MODIFIED, datesModified[track]);
+        if (years[track] > 0) {
+            builder.putLong(MediaMetadataCompat.METADATA_KEY_YEAR, years[track]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Adds every browse parent that lists this track, directly or through one of its
+     * sub categories. Folders match by path prefix, so all ancestor folders are affected.
+     */
+    private void collectParents(int track, Set<String> parents) {
+        parents.add(MEDIA_ID_TRACKS);
+        parents.add(MediaIDHelper.createMediaID(null, MEDIA_ID_ALBUM,
+                String.valueOf(albumIds[albums[track]])));
+        parents.add(MediaIDHelper.createMediaID(null, MEDIA_ID_ARTIST,
+                String.valueOf(artistIds[artists[track]])));
+        String path = getFolderPath(track);
+        while (path != null && path.length() > 0) {
+            parents.add(MediaIDHelper.createMediaID(null, MEDIA_ID_FOLDER, path));
+            path = path.lastIndexOf("/") < 0 ? null : path.substring(0, path.lastIndexOf("/"));
+        }
+    }
+
+    /**
+     * Adds the category lists that change when a track of this catalog is replaced by one
+     * of other. Either track may be -1 for an inserted or removed track.
+     */
+    private void collectCategories(int track, MusicCatalog other, int otherTrack, Set<String> parents) {
+        if (track < 0 || otherTrack < 0
+                || durations[track] != other.durations[otherTrack]
+                || years[track] != other.years[otherTrack]) {
+            // the summaries listed with the categories change too
+            parents.add(MEDIA_ID_ALBUM);
+            parents.add(MEDIA_ID_ARTIST);
+            parents.add(MEDIA_ID_FOLDER);
+            return;
+        }
+        int album = albums[track];
+        int otherAlbum = other.albums[otherTrack];
+        if (albumIds[album] != other.albumIds[otherAlbum]
+                || !equalsNullable(albumTitles[album], other.albumTitles[otherAlbum])) {
+            parents.add(MEDIA_ID_ALBUM);
+        }
+        int artist = artists[track];
+        int otherArtist = other.artists[otherTrack];
+        if (artistIds[artist] != other.artistIds[otherArtist]
+                || !equalsNullable(artistNames[artist], other.artistNames[otherArtist])) {
+            parents.add(MEDIA_ID_ARTIST);
+        }
+        if (!equalsNullable(getFolderPath(track), other.getFolderPath(otherTrack))) {
+            parents.add(MEDIA_ID_FOLDER);
+        }
+    }
+
+    private boolean isSameTrack(int track, MusicCatalog other, int otherTrack) {
+        return datesModified[track] == other.datesModified[otherTrack]
+                && years[track] == other.years[otherTrack]
+                && durations[track] == other.durations[otherTrack]
+                && albumIds[albums[track]] == other.albumIds[other.albums[otherTrack]]
+                && artistIds[artists[track]] == other.artistIds[other.artists[otherTrack]]
+                && equalsNullable(getFolderPath(track), other.getFolderPath(otherTrack))
+                && equalsNullable(fileNames[track], other.fileNames[otherTrack])
+                && equalsNullable(titles[track], other.titles[otherTrack])
+                && equalsNullable(artistNames[artists[track]], other.artistNames[other.artists[otherTrack]])
+                && equalsNullable(albumTitles[albums[track]], other.albumTitles[other.albums[otherTrack]]);
+    }
+
+    /**
+     * Builds the next catalog version from the rows MediaStore reported as added or modified
+     * and the ids that disappeared. Only the browse parents listing those tracks are reported
+     * as affected, so clients don't have to reload everything.
+     */
+    public Update applyChanges(MusicCatalog changed, Set<String> removedIds) {
+        FireLog.d(TAG, "(++) applyChanges, changed=" + changed.size() + ", removed=" + removedIds.size());
+
+        Set<String> affectedParents = new HashSet<>();
+        boolean[] merged = new boolean[changed.size()];
+        Builder next = new Builder(size() + changed.size());
+        for (int i = 0; i < size(); i++) {
+            int replacement = changed.indexOf(ids[i]);
+            if (replacement >= 0) {
+                merged[replacement] = true;
+            }
+            if (removedIds.contains(String.valueOf(ids[i]))) {
+                collectParents(i, affectedParents);
+                collectCategories(i, null, -1, affectedParents);
+            } else if (replacement >= 0 && !isSameTrack(i, changed, replacement)) {
+                collectParents(i, affectedParents);
+                collectCategories(i, changed, replacement, affectedParents);
+                changed.collectParents(replacement, affectedParents);
+                next.add(changed, replacement);
+            } else {
+                // unchanged, or re-read because of the one second watermark resolution
+                next.add(this, i);
+            }
+        }
+
+        for (int i = 0; i < changed.size(); i++) {
+            if (merged[i] || removedIds.contains(String.valueOf(changed.ids[i]))) {
+                continue;
+            }
+            changed.collectParents(i, affectedParents);
+            changed.collectCategories(i, null, -1, affectedParents);
+            next.add(changed, i);
+        }
+        return new Update(next.build(), affectedParents);
+    }
+
+    /**
+     * @return true if the children of this mediaId can be derived from the catalog alone
+     */
+    public boolean canServe(String mediaId) {
+        return mediaId.startsWith(MEDIA_ID_TRACKS) || mediaId.startsWith(MEDIA_ID_ALBUM)
+                || mediaId.startsWith(MEDIA_ID_ARTIST) || mediaId.startsWith(MEDIA_ID_FOLDER);
+    }
+
+    /**
+     * Same contract as {@link MusicProviderSource#iterator(String)}: categories return
+     * browsable sub categories keyed by their id, sub categories return their tracks.
+     * The returned lists are views that build each entry when it is read.
+     */
+    public List<MediaMetadataCompat> getChildren(String mediaId) {
+        FireLog.d(TAG, "(++) getChildren, mediaId=" + mediaId);
+
+        if (MEDIA_ID_TRACKS.equals(mediaId)) {
+            return allTracks;
+        } else if (MEDIA_ID_ALBUM.equals(mediaId)) {
+            return getAlbums();
+        } else if (MEDIA_ID_ARTIST.equals(mediaId)) {
+            return getArtists();
+        } else if (MEDIA_ID_FOLDER.equals(mediaId)) {
+            return getFolders();
+        } else if (canServe(mediaId)) {
+            String[] hierarchy = MediaIDHelper.getHierarchy(mediaId);
+            if (hierarchy.length < 2) {
+                return new ArrayList<>();
+            }
+            return getTracksBySubCategory(hierarchy[0], hierarchy[1]);
+        }
+        FireLog.w(TAG, "unmatched mediaId: " + mediaId);
+        return new ArrayList<>();
+    }
+
+    private List<MediaMetadataCompat> getAlbums() {
+        // an album is listed with the title and art of its first track
+        Set<Long> seen = new HashSet<>();
+        List<Integer> firstTracks = new ArrayList<>();
+        for (int i = 0; i < size(); i++) {
+            if (seen.add(albumIds[albums[i]])) {
+                firstTracks.add(i);
+            }
+        }
+        return new CategoryList(MEDIA_ID_ALBUM, sortByName(firstTracks, albums, albumTitles));
+    }
+
+    private List<MediaMetadataCompat> getArtists() {
+        Set<Long> seen = new HashSet<>();
+        List<Integer> firstTracks = new ArrayList<>();
+        for (int i = 0; i < size(); i++) {
+            if (seen.add(artistIds[artists[i]])) {
+                firstTracks.add(i);
+            }
+        }
+        return new CategoryList(MEDIA_ID_ARTIST, sortByName(firstTracks, artists, artistNames));
+    }
+
+    private List<MediaMetadataCompat> getFolders() {
+        return new FolderList(folderIndex.getRoots());
+    }
+
+    /**
+     * @return browsable sub folders of a folder sub category, empty for any other mediaId
+     */
+    public List<MediaMetadataCompat> getSubFolders(String mediaId) {
+        String[] hierarchy = MediaIDHelper.getHierarchy(mediaId);
+        if (hierarchy.length < 2 || !MEDIA_ID_FOLDER.equals(hierarchy[0])) {
+            return new ArrayList<>();
+        }
+        int node = folderIndex.find(hierarchy[1]);
+        return node < 0 ? new ArrayList<MediaMetadataCompat>() : new FolderList(folderIndex.getChildren(node));
+    }
+
+    private int[] sortByName(List<Integer> tracks, final int[] ordinals, final String[] names) {
+        Integer[] sorted = tracks.toArray(new Integer[tracks.size()]);
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return compareIgnoreCase(names[ordinals[lhs]], names[ordinals[rhs]]);
+            }
+        });
+        return toIntArray(Arrays.asList(sorted));
+    }
+
+    private List<MediaMetadataCompat> getTracksBySubCategory(String category, String subCategory) {
+        if (MEDIA_ID_TRACKS.equals(category)) {
+            return allTracks;
+        } else if (MEDIA_ID_FOLDER.equals(category)) {
+            // in case of folder subcategory = path, its sub folders are listed separately
+            int node = folderIndex.find(subCategory);
+            return new TrackList(node < 0 ? new int[0] : folderIndex.getDirectTracks(node));
+        }
+        int[] positions = null;
+        if (MEDIA_ID_ALBUM.equals(category)) {
+            positions = albumTracks.get(parseId(subCategory));
+        } else if (MEDIA_ID_ARTIST.equals(category)) {
+            positions = artistTracks.get(parseId(subCategory));
+        }
+        return new TrackList(positions == null ? new int[0] : positions);
+    }
+
+    /**
+     * Implemented by the lists {@link #getChildren(String)} returns, so media items can be
+     * described straight from the catalog columns without building metadata first.
+     */
+    interface ChildList {
+        /**
+         * @return musicId of a track, or the sub category of an album, artist or folder
+         */
+        String getChildId(int index);
+
+        MediaDescriptionCompat getDescription(int index, String mediaId);
+    }
+
+    /**
+     * Tracks at the given positions, or all tracks if positions is null.
+     */
+    private class TrackList extends AbstractList<MediaMetadataCompat> implements RandomAccess, ChildList {
+        private final int[] positions;
+
+        TrackList(int[] positions) {
+            this.positions = positions;
+        }
+
+        @Override
+        public MediaMetadataCompat get(int index) {
+            return getTrack(positions == null ? index : positions[index]);
+        }
+
+        @Override
+        public int size() {
+            return positions == null ? ids.length : positions.length;
+        }
+
+        @Override
+        public String getChildId(int index) {
+            return String.valueOf(ids[positions == null ? index : positions[index]]);
+        }
+
+        @Override
+        public MediaDescriptionCompat getDescription(int index, String mediaId) {
+            int track = positions == null ? index : positions[index];
+            return DescriptionFactory.create(mediaId, titles[track], artistNames[artists[track]],
+                    albumTitles[albums[track]], albumArts[albums[track]], getData(track));
+        }
+
+        @Override
+        public String toString() {
+            // don't materialize every track just to log the list
+            return "TrackList{size=" + size() + "}";
+        }
+    }
+
+    /**
+     * Albums or artists, each represented by the position of one of its tracks.
+     */
+    private class CategoryList extends AbstractList<MediaMetadataCompat> implements RandomAccess, ChildList {
+        private final String category;
+        private final int[] tracks;
+
+        CategoryList(String category, int[] tracks) {
+            this.category = category;
+            this.tracks = tracks;
+        }
+
+        @Override
+        public MediaMetadataCompat get(int index) {
+            int track = tracks[index];
+            if (MEDIA_ID_ALBUM.equals(category)) {
+                int album = albums[track];
+                return albumSummaries[album].toMetadata(String.valueOf(albumIds[album]),
+                        albumTitles[album], albumArts[album]);
+            }
+            int artist = artists[track];
+            return artistSummaries[artist].toMetadata(String.valueOf(artistIds[artist]),
+                    artistNames[artist], null);
+        }
+
+        @Override
+        public int size() {
+            return tracks.length;
+        }
+
+        @Override
+        public String getChildId(int index) {
+            int track = tracks[index];
+            if (MEDIA_ID_ALBUM.equals(category)) {
+                return String.valueOf(albumIds[albums[track]]);
+            }
+            return String.valueOf(artistIds[artists[track]]);
+        }
+
+        @Override
+        public MediaDescriptionCompat getDescription(int index, String mediaId) {
+            int track = tracks[index];
+            if (MEDIA_ID_ALBUM.equals(category)) {
+                int album = albums[track];
+                return albumSummaries[album].toDescription(mediaId, albumTitles[album], albumArts[album]);
+            }
+            int artist = artists[track];
+            return artistSummaries[artist].toDescription(mediaId, artistNames[artist], null);
+        }
+
+        @Override
+        public String toString() {
+            return "CategoryList{category=" + category + ", size=" + size() + "}";
+        }
+    }
+
+    /**
+     * Folders of the folder index, keyed by path and shown with the art of their first track.
+     */
+    private class FolderList extends AbstractList<MediaMetadataCompat> implements RandomAccess, ChildList {
+        private final int[] nodes;
+
+        FolderList(int[] nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        public MediaMetadataCompat get(int index) {
+            int node = nodes[index];
+            return getSummary(node).toMetadata(folderIndex.getPath(node), folderIndex.getName(node),
+                    albumArts[albums[folderIndex.getFirstTrack(node)]]);
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
+
+        @Override
+        public String getChildId(int index) {
+            return folderIndex.getPath(nodes[index]);
+        }
+
+        @Override
+        public MediaDescriptionCompat getDescription(int index, String mediaId) {
+            int node = nodes[index];
+            return getSummary(node).toDescription(mediaId, folderIndex.getName(node),
+                    albumArts[albums[folderIndex.getFirstTrack(node)]]);
+        }
+
+        private CategorySummary getSummary(int node) {
+            // the whole sub tree, read from the folder index without walking it
+            return new CategorySummary(folderIndex.getTrackCount(node), folderIndex.getDuration(node));
+        }
+
+        @Override
+        public String toString() {
+            return "FolderList{size=" + size() + "}";
+        }
+    }
+
+    /**
+     * Collects tracks row by row and interns albums, artists and folders into their tables.
+     * The catalog it builds is sorted by title, whatever order rows were added in.
+     */
+    public static class Builder {
+        private final Map<String, Integer> albumOrdinals = new HashMap<>();
+        private final Map<String, Integer> artistOrdinals = new HashMap<>();
+        private final Map<String, Integer> folderOrdinals = new HashMap<>();
+        private final List<Long> albumIds = new ArrayList<>();
+        private final List<String> albumTitles = new ArrayList<>();
+        private final List<String> albumArts = new ArrayList<>();
+        private final List<Long> artistIds = new ArrayList<>();
+        private final List<String> artistNames = new ArrayList<>();
+        private final List<String> folderPaths = new ArrayList<>();
+
+        private int size;
+        private long[] ids;
+        private long[] durations;
+        private long[] datesModified;
+        private int[] years;
+        private int[] albums;
+        private int[] artists;
+        private int[] folders;
+        private String[] titles;
+        private String[] fileNames;
+
+        public Builder() {
+            this(64);
+        }
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            ids = new long[capacity];
+            durations = new long[capacity];
+            datesModified = new long[capacity];
+            years = new int[capacity];
+            albums = new int[capacity];
+            artists = new int[capacity];
+            folders = new int[capacity];
+            titles = new String[capacity];
+            fileNames = new String[capacity];
+        }
+
+        public Builder add(long id, String data, String title, String artist, String album,
+                           long duration, String albumArt, long albumId, long artistId,
+                           long dateModified, int year) {
+            int slash = data == null ? -1 : data.lastIndexOf("/");
+            // a file right under the root isn't in any browsable folder
+            int folder = slash <= 0 ? -1 : addFolder(data.substring(0, slash));
+            String fileName = slash <= 0 ? data : data.substring(slash + 1);
+            return addTrack(id, duration, dateModified, year, addAlbum(albumId, album, albumArt),
+                    addArtist(artistId, artist), folder, title, fileName);
+        }
+
+        /**
+         * Copies one row of another catalog, re-interning its album, artist and folder.
+         */
+        Builder add(MusicCatalog from, int track) {
+            int album = from.albums[track];
+            int artist = from.artists[track];
+            int folder = from.folders[track];
+            return addTrack(from.ids[track], from.durations[track], from.datesModified[track],
+                    from.years[track],
+                    addAlbum(from.albumIds[album], from.albumTitles[album], from.albumArts[album]),
+                    addArtist(from.artistIds[artist], from.artistNames[artist]),
+                    folder < 0 ? -1 : addFolder(from.folderPaths[folder]),
+                    from.titles[track], from.fileNames[track]);
+        }
+
+        int addAlbum(long albumId, String title, String albumArt) {
+            // keyed by title too, so a renamed album doesn't keep its old title
+            String key = albumId + "/" + title;
+            Integer ordinal = albumOrdinals.get(key);
+            if (ordinal == null) {
+                ordinal = albumIds.size();
+                albumOrdinals.put(key, ordinal);
+                albumIds.add(albumId);
+                albumTitles.add(title);
+                albumArts.add(albumArt);
+            }
+            return ordinal;
+        }
+
+        int addArtist(long artistId, String name) {
+            String key = artistId + "/" + name;
+            Integer ordinal = artistOrdinals.get(key);
+            if (ordinal == null) {
+                ordinal = artistIds.size();
+                artistOrdinals.put(key, ordinal);
+                artistIds.add(artistId);
+                artistNames.add(name);
+            }
+            return ordinal;
+        }
+
+        int addFolder(String path) {
+            Integer ordinal = folderOrdinals.get(path);
+            if (ordinal == null) {
+                ordinal = folderPaths.size();
+                folderOrdinals.put(path, ordinal);
+                folderPaths.add(path);
+            }
+            return ordinal;
+        }
+
+        /**
+         * Appends every row of another builder, e.g. one filled from a different id range,
+         * interning its albums, artists and folders once instead of once per row.
+         */
+        Builder addAll(Builder other) {
+            int[] albumMap = new int[other.albumIds.size()];
+            for (int i = 0; i < albumMap.length; i++) {
+                albumMap[i] = addAlbum(other.albumIds.get(i), other.albumTitles.get(i),
+                        other.albumArts.get(i));
+            }
+            int[] artistMap = new int[other.artistIds.size()];
+            for (int i = 0; i < artistMap.length; i++) {
+                artistMap[i] = addArtist(other.artistIds.get(i), other.artistNames.get(i));
+            }
+            int[] folderMap = new int[other.folderPaths.size()];
+            for (int i = 0; i < folderMap.length; i++) {
+                folderMap[i] = addFolder(other.folderPaths.get(i));
+            }
+            for (int track = 0; track < other.size; track++) {
+                int folder = other.folders[track];
+                addTrack(other.ids[track], other.durations[track], other.datesModified[track],
+                        other.years[track], albumMap[other.albums[track]],
+                        artistMap[other.artists[track]], folder < 0 ? -1 : folderMap[folder],
+                        other.titles[track], other.fileNames[track]);
+            }
+            return this;
+        }
+
+        Builder addTrack(long id, long duration, long dateModified, int year, int album,
+                         int artist, int folder, String title, String fileName) {
+            if (size == ids.length) {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                durations = Arrays.copyOf(durations, capacity);
+                datesModified = Arrays.copyOf(datesModified, capacity);
+                years = Arrays.copyOf(years, capacity);
+                albums = Arrays.copyOf(albums, capacity);
+                artists = Arrays.copyOf(artists, capacity);
+                folders = Arrays.copyOf(folders, capacity);
+                titles = Arrays.copyOf(titles, capacity);
+                fileNames = Arrays.copyOf(fileNames, capacity);
+            }
+            ids[size] = id;
+            durations[size] = duration;
+            datesModified[size] = dateModified;
+            years[size] = year;
+            albums[size] = album;
+            artists[size] = artist;
+            folders[size] = folder;
+            titles[size] = title;
+            fileNames[size] = fileName;
+            size++;
+            return this;
+        }
+
+        /**
+         * @return catalog whose stamp is computed from the rows added
+         */
+        public MusicCatalog build() {
+            return new MusicCatalog(null, this);
+        }
+
+        /**
+         * @return catalog carrying a stamp recorded earlier, e.g. in a snapshot
+         */
+        MusicCatalog build(Stamp stamp) {
+            return new MusicCatalog(stamp, this);
+        }
+    }
+
+    /**
+     * Result of {@link #applyChanges(MusicCatalog, Set)}: the next catalog and the browse
+     * parents whose children changed.
+     */
+    public static class Update {
+        private final MusicCatalog catalog;
+        private final Set<String> affectedParents;
+
+        Update(MusicCatalog catalog, Set<String> affectedParents) {
+            this.catalog = catalog;
+            this.affectedParents = affectedParents;
+        }
+
+        public MusicCatalog getCatalog() {
+            return catalog;
+        }
+
+        public Set<String> getAffectedParents() {
+            return affectedParents;
+        }
+    }
+
+    /**
+     * Cheap fingerprint of the MediaStore audio table. If the stamp of a snapshot differs from
+     * the one computed against MediaStore, the snapshot is stale.
+     */
+    public static class Stamp {
+        private final int count;
+        private final long maxId;
+        private final long maxDateModified;
+
+        public Stamp(int count, long maxId, long maxDateModified) {
+            this.count = count;
+            this.maxId = maxId;
+            this.maxDateModified = maxDateModified;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getMaxId() {
+            return maxId;
+        }
+
+        public long getMaxDateModified() {
+            return maxDateModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp stamp = (Stamp) o;
+            return count == stamp.count && maxId == stamp.maxId
+                    && maxDateModified == stamp.maxDateModified;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = count;
+            result = 31 * result + (int) (maxId ^ (maxId >>> 32));
+            result = 31 * result + (int) (maxDateModified ^ (maxDateModified >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Stamp{count=" + count + ", maxId=" + maxId + ", maxDateModified=" + maxDateModified + "}";
+        }
+    }
+}
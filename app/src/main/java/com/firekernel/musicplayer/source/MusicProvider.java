@@ -1,18 +1,26 @@
 package com.firekernel.musicplayer.source;
 
-import android.os.AsyncTask;
+import android.os.Bundle;
+import android.provider.MediaStore;
 import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
 
 import com.firekernel.musicplayer.utils.FireLog;
+import com.firekernel.musicplayer.utils.LoaderScheduler;
 import com.firekernel.musicplayer.utils.MediaIDHelper;
 
+import java.io.File;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ALBUM;
 import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ARTIST;
@@ -30,62 +38,375 @@ import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_TRACKS_ALL
  */
 public class MusicProvider {
     private static final String TAG = FireLog.makeLogTag(MusicProvider.class);
-    //only  playable music list, gets updated only when medialist is playable
+    // rows read from a source before its first children are handed out
+    private static final int FIRST_BATCH_SIZE = 100;
+    // top level categories loaded ahead of the first tap on them
+    private static final String[] WARM_UP_PARENTS = {MEDIA_ID_TRACKS, MEDIA_ID_ALBUM,
+            MEDIA_ID_ARTIST, MEDIA_ID_FOLDER, MEDIA_ID_GENRE, MEDIA_ID_PLAYLIST};
+    // MediaStore.EXTRA_MEDIA_GENRE, only defined from API 21
+    private static final String EXTRA_MEDIA_GENRE = "android.intent.extra.genre";
+    // playable tracks seen outside the catalog, e.g. in playlists, keyed by musicId
     // used by updatemetadata while playing
-    private final CopyOnWriteArrayList<MediaMetadataCompat> musicList;
-    // media list contains browsable + playable media items
-    private final CopyOnWriteArrayList<MediaMetadataCompat> mediaList;
-    ExecutorService executorService = Executors.newSingleThreadExecutor();
-    private MusicProviderSource localSource;
+    private final TrackRegistry musicRegistry;
+    // browsable + playable media items of recently retrieved parents
+    private final BrowseCache browseCache;
+    private final LoaderScheduler scheduler = LoaderScheduler.getInstance();
+    // browse loads queued or running, keyed by parent mediaId; guarded by itself
+    private final Map<String, InFlightLoad> inFlightLoads = new HashMap<>();
+    private final AtomicInteger startedLoads = new AtomicInteger();
+    private final AtomicInteger coalescedLoads = new AtomicInteger();
+    // browse requests from clients retrieving right now, warm-up is put off until they're done
+    private final Object interactiveLock = new Object();
+    private int interactiveRequests;
+    // prefetch work put off by them, submitted again once the last one is done; guarded by interactiveLock
+    private final List<Runnable> deferredPrefetches = new ArrayList<>();
+    // bumped whenever sync invalidates cached parents, so warm-up doesn't put back stale ones
+    private volatile int browseGeneration;
+    // bumped whenever the catalog is loaded or synced, cached search results of an older one are dropped
+    private volatile int catalogVersion;
+    private LocalSource localSource;
     private MusicProviderSource remoteSource;
+    // tracks, albums, artists and folders are served from here once loaded
+    private volatile MusicCatalog catalog;
+    // genre members resolved against the catalog, built on the first genre browse
+    private volatile GenreIndex genreIndex;
+    // words of track, album and artist names, built on the first search and replaced on every sync
+    private volatile SearchIndex searchIndex;
+    // held while building the search index, so callers racing on a cold start build it once
+    private final Object searchIndexLock = new Object();
+    private final PlayCounts playCounts;
+    private final RecentQueries recentQueries;
+    private CatalogListener catalogListener;
 
     private MusicProvider() {
         // not following the adapter pattern
         this(new LocalSource(), new RemoteSource());
     }
 
-    private MusicProvider(MusicProviderSource localSource, MusicProviderSource remoteSource) {
+    private MusicProvider(LocalSource localSource, MusicProviderSource remoteSource) {
         this.localSource = localSource;
         this.remoteSource = remoteSource;
-        musicList = new CopyOnWriteArrayList<>();
-        mediaList = new CopyOnWriteArrayList<>();
+        musicRegistry = new TrackRegistry();
+        browseCache = new BrowseCache();
+        playCounts = new PlayCounts();
+        recentQueries = new RecentQueries();
     }
 
     public static MusicProvider getInstance() {
         return LazyHolder.INSTANCE;
     }
 
+    /**
+     * Loads the catalog from its on-disk snapshot, falling back to MediaStore only when the
+     * snapshot is missing or stale. Runs in the browse lane and holds the provider lock, so
+     * browse requests retrieved after it are served from the catalog.
+     */
+    public void retrieveCatalogAsync() {
+        FireLog.d(TAG, "(++) retrieveCatalogAsync");
+        scheduler.submit(LoaderScheduler.Lane.BROWSE, new Runnable() {
+            @Override
+            public void run() {
+                retrieveCatalog();
+            }
+        });
+    }
+
+    private synchronized MusicCatalog retrieveCatalog() {
+        if (catalog != null) {
+            return catalog;
+        }
+        try {
+            File file = CatalogSnapshot.getDefaultFile();
+            MusicCatalog snapshot = CatalogSnapshot.read(file);
+            MusicCatalog.Stamp stamp = localSource.queryStamp();
+            if (snapshot != null && snapshot.getStamp().equals(stamp)) {
+                FireLog.d(TAG, "Using catalog snapshot, " + stamp);
+                catalog = snapshot;
+                catalogVersion++;
+            } else {
+                FireLog.d(TAG, "Catalog snapshot is stale, reloading from MediaStore");
+                MusicCatalog fresh = localSource.loadCatalog();
+                CatalogSnapshot.write(file, fresh);
+                catalog = fresh;
+                catalogVersion++;
+            }
+        } catch (Exception e) {
+            // e.g. storage permission not granted yet, try again on the next browse request
+            FireLog.e(TAG, "Catalog Initialization failed", e);
+        }
+        return catalog;
+    }
+
+    /**
+     * Loads every top level category concurrently in the prefetch lane, so the first tap on
+     * one of them is served from the browse cache. Each category is published as soon as it
+     * is loaded and is put off while a client request is being retrieved; a category that
+     * is already being loaded isn't interrupted. The search index is built last, so a voice
+     * request doesn't wait for it.
+     */
+    public void warmUpAsync() {
+        FireLog.d(TAG, "(++) warmUpAsync");
+        for (final String mediaId : WARM_UP_PARENTS) {
+            prefetch(new Runnable() {
+                @Override
+                public void run() {
+                    warmUp(mediaId);
+                }
+            });
+        }
+        prefetch(new Runnable() {
+            @Override
+            public void run() {
+                getSearchIndex();
+            }
+        });
+    }
+
+    private void warmUp(String mediaId) {
+        try {
+            if (browseCache.get(mediaId) != null || isInFlight(mediaId)) {
+                return;
+            }
+            int generation = browseGeneration;
+            BrowseCache.Entry entry = loadEntry(mediaId, null);
+            synchronized (this) {
+                if (generation == browseGeneration && browseCache.get(mediaId) == null) {
+                    browseCache.put(mediaId, entry);
+                    FireLog.d(TAG, "Warmed up " + mediaId);
+                }
+            }
+        } catch (Exception e) {
+            // e.g. storage permission not granted yet, the client request will retry
+            FireLog.e(TAG, "Warm-up failed, mediaId=" + mediaId, e);
+        }
+    }
+
+    /**
+     * Runs work in the prefetch lane once no client request is being retrieved. Work started
+     * while one is, is put aside instead of waiting for it: a pool thread blocked there could
+     * be the one the client request needs.
+     */
+    private void prefetch(final Runnable work) {
+        scheduler.submit(LoaderScheduler.Lane.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (interactiveLock) {
+                    if (interactiveRequests > 0) {
+                        deferredPrefetches.add(work);
+                        return;
+                    }
+                }
+                work.run();
+            }
+        });
+    }
+
+    private void setInteractive(boolean started) {
+        List<Runnable> resumed = null;
+        synchronized (interactiveLock) {
+            interactiveRequests += started ? 1 : -1;
+            if (interactiveRequests == 0 && !deferredPrefetches.isEmpty()) {
+                resumed = new ArrayList<>(deferredPrefetches);
+                deferredPrefetches.clear();
+            }
+        }
+        if (resumed != null) {
+            for (Runnable work : resumed) {
+                prefetch(work);
+            }
+        }
+    }
+
+    public void setCatalogListener(CatalogListener catalogListener) {
+        this.catalogListener = catalogListener;
+    }
+
+    /**
+     * Applies the MediaStore rows changed since the last load or sync to the catalog.
+     * Called by {@link CatalogSync} whenever MediaStore reports a change.
+     */
+    public void syncCatalogAsync() {
+        FireLog.d(TAG, "(++) syncCatalogAsync");
+        scheduler.submit(LoaderScheduler.Lane.PREFETCH, new Runnable() {
+            @Override
+            public void run() {
+                syncCatalog();
+            }
+        });
+    }
+
+    private synchronized void syncCatalog() {
+        MusicCatalog current = catalog;
+        if (current == null) {
+            // nothing to diff against, the next browse request loads it from scratch
+            return;
+        }
+        try {
+            MusicCatalog.Stamp stamp = current.getStamp();
+            MusicCatalog changed = localSource.queryChangedTracks(stamp);
+
+            // rows can't be deleted without the count dropping below what we expect,
+            // so the id walk is only needed when that happens
+            int added = 0;
+            for (int i = 0; i < changed.size(); i++) {
+                if (!current.contains(String.valueOf(changed.getId(i)))) {
+                    added++;
+                }
+            }
+            Set<String> removedIds = new HashSet<>();
+            if (localSource.queryTrackCount() != stamp.getCount() + added) {
+                Set<String> ids = localSource.queryTrackIds();
+                for (int i = 0; i < current.size(); i++) {
+                    String id = String.valueOf(current.getId(i));
+                    if (!ids.contains(id)) {
+                        removedIds.add(id);
+                    }
+                }
+            }
+
+            // playlist and genre members aren't part of the catalog, refetch them on next open
+            Set<String> changedParents = new HashSet<>();
+            changedParents.add(MEDIA_ID_PLAYLIST);
+            changedParents.add(MEDIA_ID_GENRE);
+            changedParents.addAll(browseCache.invalidateCategory(MEDIA_ID_PLAYLIST));
+            changedParents.addAll(browseCache.invalidateCategory(MEDIA_ID_GENRE));
+            genreIndex = null;
+            browseGeneration++;
+            catalogVersion++;
+
+            MusicCatalog.Update update = current.applyChanges(changed, removedIds);
+            if (update.getAffectedParents().isEmpty()) {
+                // no track changed, but subscribers of playlists and genres still have to reload
+                notifyCatalogChanged(changedParents);
+                return;
+            }
+            changedParents.addAll(update.getAffectedParents());
+            catalog = update.getCatalog();
+            if (searchIndex != null) {
+                searchIndex = searchIndex.update(catalog, changed, removedIds, playCounts.getAll());
+            }
+            browseCache.invalidate(update.getAffectedParents());
+            musicRegistry.removeAll(removedIds);
+            CatalogSnapshot.write(CatalogSnapshot.getDefaultFile(), catalog);
+            FireLog.d(TAG, "Catalog synced, " + catalog.getStamp());
+            notifyCatalogChanged(changedParents);
+        } catch (Exception e) {
+            FireLog.e(TAG, "Catalog sync failed", e);
+        }
+    }
+
+    private void notifyCatalogChanged(Set<String> parentIds) {
+        if (catalogListener != null) {
+            catalogListener.onCatalogChanged(parentIds);
+        }
+    }
+
     /**
      * Get the list of music tracks from a server and caches the track information
      * for future reference, keying tracks by musicId and grouping by genre.
+     * <p>
+     * A request for a parent that is already being retrieved, e.g. by another client
+     * subscribed to it, doesn't start a second load but waits for the running one and gets
+     * its callbacks as well.
      */
-    public void retrieveMediaAsync(final String mediaId, final Callback callback) {
-        FireLog.d(TAG, "(++) retrieveMediaAsync");
+    public void retrieveMediaAsync(final String mediaId, Callback callback) {
+        FireLog.d(TAG, "(++) retrieveMediaAsync, mediaId=" + mediaId);
+        final InFlightLoad load;
+        synchronized (inFlightLoads) {
+            InFlightLoad running = inFlightLoads.get(mediaId);
+            if (running != null) {
+                coalescedLoads.incrementAndGet();
+                FireLog.d(TAG, "Joined load in flight, mediaId=" + mediaId
+                        + ", waiting=" + (running.callbacks.size() + 1));
+                running.join(callback);
+                return;
+            }
+            load = new InFlightLoad();
+            load.join(callback);
+            inFlightLoads.put(mediaId, load);
+        }
+        startedLoads.incrementAndGet();
         // Asynchronously load the music catalog in a separate thread
-        new AsyncTask<Void, Void, Boolean>() {
+        setInteractive(true);
+        scheduler.submit(LoaderScheduler.Lane.BROWSE, new LoaderScheduler.Job<Boolean>() {
             @Override
-            protected Boolean doInBackground(Void... params) {
-                return retrieveMedia(mediaId);
+            protected Boolean call() {
+                try {
+                    return retrieveMedia(mediaId, new ChildrenSink() {
+                        @Override
+                        public void onFirstChildren(final List<MediaBrowserCompat.MediaItem> children) {
+                            scheduler.runOnMainThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    load.deliverFirstChildren(children);
+                                }
+                            });
+                        }
+                    });
+                } finally {
+                    setInteractive(false);
+                }
             }
 
             @Override
-            protected void onPostExecute(Boolean initialized) {
-                if (callback != null) {
-                    callback.onMusicCatalogReady(initialized);
-                }
+            protected void onResult(Boolean initialized) {
+                finish(mediaId, load).deliverReady(initialized);
+            }
+
+            @Override
+            protected void onError(Exception e) {
+                super.onError(e);
+                finish(mediaId, load).deliverReady(false);
+            }
+        });
+    }
+
+    private InFlightLoad finish(String mediaId, InFlightLoad load) {
+        synchronized (inFlightLoads) {
+            if (inFlightLoads.get(mediaId) == load) {
+                inFlightLoads.remove(mediaId);
             }
-        }.executeOnExecutor(executorService);
+        }
+        return load;
+    }
+
+    private boolean isInFlight(String mediaId) {
+        synchronized (inFlightLoads) {
+            return inFlightLoads.containsKey(mediaId);
+        }
     }
 
-    private synchronized boolean retrieveMedia(String mediaId) {
+    /**
+     * @return number of browse loads actually run by {@link #retrieveMediaAsync(String, Callback)}
+     */
+    public int getStartedLoadCount() {
+        return startedLoads.get();
+    }
+
+    /**
+     * @return number of browse requests that joined a load already in flight instead of
+     * running their own
+     */
+    public int getCoalescedLoadCount() {
+        return coalescedLoads.get();
+    }
+
+    /**
+     * @return children of mediaId if they are cached, null if they need to be retrieved
+     */
+    public List<MediaBrowserCompat.MediaItem> getCachedChildren(String mediaId) {
+        BrowseCache.Entry entry = browseCache.get(mediaId);
+        return entry == null ? null : entry.getItems();
+    }
+
+    private synchronized boolean retrieveMedia(String mediaId, ChildrenSink sink) {
+        if (browseCache.get(mediaId) != null) {
+            // a request queued behind us already retrieved it
+            return true;
+        }
         boolean initialized = false;
-        mediaList.clear();
         try {
-            Iterator<MediaMetadataCompat> tracks = localSource.iterator(mediaId);
-            while (tracks.hasNext()) {
-                MediaMetadataCompat item = tracks.next();
-                mediaList.add(item);
-            }
+            browseCache.put(mediaId, loadEntry(mediaId, sink));
             initialized = true;
         } catch (Exception e) {
             FireLog.e(TAG, "Media Initialization failed", e);
@@ -93,110 +414,366 @@ public class MusicProvider {
         return initialized;
     }
 
+    /**
+     * Reads the children of mediaId without touching the browse cache. Doesn't need the
+     * provider lock, apart from loading the catalog itself.
+     */
+    private BrowseCache.Entry loadEntry(String mediaId, ChildrenSink sink) {
+        MusicCatalog current = retrieveCatalog();
+        List<MediaMetadataCompat> retrieved;
+        List<MediaBrowserCompat.MediaItem> items;
+        if (current != null && current.canServe(mediaId)) {
+            // a view on the catalog, entries are built only when a client reads them
+            retrieved = current.getChildren(mediaId);
+            items = createMediaItems(mediaId, retrieved);
+            List<MediaMetadataCompat> subFolders = current.getSubFolders(mediaId);
+            if (!subFolders.isEmpty()) {
+                // sub folders are listed first, the queue only holds the folder's own tracks
+                items = new JoinedList<>(new MediaItemList(subFolders, MEDIA_ID_FOLDER, null,
+                        MediaBrowserCompat.MediaItem.FLAG_BROWSABLE), items);
+            }
+        } else if (current != null && mediaId.startsWith(MEDIA_ID_GENRE)) {
+            retrieved = getGenreIndex(current).getChildren(mediaId);
+            items = createMediaItems(mediaId, retrieved);
+        } else {
+            retrieved = new ArrayList<>();
+            CloseableIterator<MediaMetadataCompat> tracks = localSource.iterator(mediaId);
+            try {
+                // the first batch goes out while the rest is still being read
+                if (drain(tracks, retrieved, FIRST_BATCH_SIZE) == FIRST_BATCH_SIZE && tracks.hasNext()
+                        && sink != null) {
+                    sink.onFirstChildren(createMediaItems(mediaId,
+                            new ArrayList<>(retrieved)));
+                }
+                drain(tracks, retrieved, Integer.MAX_VALUE);
+            } finally {
+                tracks.close();
+            }
+            if (isPlayableParent(mediaId)) {
+                musicRegistry.putAllAbsent(retrieved);
+            }
+            items = createMediaItems(mediaId, retrieved);
+        }
+        return new BrowseCache.Entry(retrieved, items);
+    }
+
+    /**
+     * Moves up to max rows from the source into the sink list.
+     *
+     * @return number of rows moved
+     */
+    private static int drain(Iterator<MediaMetadataCompat> source, List<MediaMetadataCompat> sink,
+                             int max) {
+        int count = 0;
+        while (count < max && source.hasNext()) {
+            sink.add(source.next());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * One bulk membership query covers every genre, so opening a genre needs no further query.
+     */
+    private GenreIndex getGenreIndex(MusicCatalog current) {
+        GenreIndex index = genreIndex;
+        if (index == null || index.getCatalog() != current) {
+            index = localSource.queryGenreIndex(current);
+            genreIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Builds the index outside the provider lock, so browse requests and syncs aren't held up
+     * by it. Only one caller builds at a time, the others wait for it and use its index. It is
+     * only published if the catalog it was built from is still the current one, otherwise it
+     * is built again from the catalog a sync replaced it with.
+     *
+     * @return index over the catalog, or null if the catalog can't be loaded
+     */
+    SearchIndex getSearchIndex() {
+        SearchIndex index = searchIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (searchIndexLock) {
+            index = searchIndex;
+            while (index == null) {
+                MusicCatalog current = retrieveCatalog();
+                if (current == null) {
+                    return null;
+                }
+                SearchIndex built = SearchIndex.build(current, playCounts.getAll());
+                synchronized (this) {
+                    if (searchIndex == null && catalog == current) {
+                        searchIndex = built;
+                    }
+                    index = searchIndex;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Resolves a play from search request, e.g. "play abbey road by the beatles", against the
+     * search index and the catalog, without querying MediaStore. The focus extra tells what
+     * was asked for, a song, an album, an artist or a genre, and the other extras name it;
+     * without a focus, or if the focused lookup finds nothing, the query is matched against
+     * tracks, albums and artists alike. An empty query plays all tracks.
+     * <p>
+     * A track is queued with the rest of its album, an album, artist or genre from its first
+     * track. Must not be called on the main thread, it may have to load the catalog.
+     *
+     * @return hierarchy-aware mediaId of the track to play first, its parent being the queue;
+     * null if nothing matched or the catalog can't be loaded
+     */
+    public String resolvePlayFromSearch(String query, Bundle extras) {
+        FireLog.d(TAG, "(++) resolvePlayFromSearch, query=" + query + ", extras=" + extras);
+        SearchIndex index = getSearchIndex();
+        MusicCatalog current = catalog;
+        if (index == null || current == null) {
+            return null;
+        }
+        String focus = getExtra(extras, MediaStore.EXTRA_MEDIA_FOCUS);
+        String artist = getExtra(extras, MediaStore.EXTRA_MEDIA_ARTIST);
+        String album = getExtra(extras, MediaStore.EXTRA_MEDIA_ALBUM);
+        String title = getExtra(extras, MediaStore.EXTRA_MEDIA_TITLE);
+        String genre = getExtra(extras, EXTRA_MEDIA_GENRE);
+        if ((query == null || query.trim().isEmpty())
+                && artist == null && album == null && title == null && genre == null) {
+            // "play music"
+            return getFirstTrack(current.getChildren(MEDIA_ID_TRACKS), MEDIA_ID_TRACKS,
+                    MEDIA_ID_TRACKS_ALL);
+        }
+
+        String mediaId = null;
+        SearchIndex.Hit hit = null;
+        if (MediaStore.Audio.Genres.ENTRY_CONTENT_TYPE.equals(focus)) {
+            GenreIndex genres = getGenreIndex(current);
+            String genreId = genres.findGenre(genre != null ? genre : query);
+            if (genreId != null) {
+                String[] hierarchy = MediaIDHelper.getHierarchy(genreId);
+                mediaId = getFirstTrack(genres.getChildren(genreId),
+                        hierarchy[0], hierarchy[1]);
+            }
+        } else if (MediaStore.Audio.Artists.ENTRY_CONTENT_TYPE.equals(focus)) {
+            hit = index.findArtist(artist != null ? artist : query);
+        } else if (MediaStore.Audio.Albums.ENTRY_CONTENT_TYPE.equals(focus)) {
+            hit = index.findAlbum(album != null ? join(album, artist) : query);
+        } else if (MediaStore.Audio.Media.ENTRY_CONTENT_TYPE.equals(focus)) {
+            hit = index.findTrack(title != null ? join(title, artist, album) : query);
+        }
+        if (mediaId == null && hit == null && query != null) {
+            hit = index.findAny(query);
+        }
+        if (hit != null) {
+            FireLog.d(TAG, "Resolved " + hit);
+            if (MEDIA_ID_TRACKS.equals(hit.category)) {
+                mediaId = MediaIDHelper.createMediaID(String.valueOf(hit.id), MEDIA_ID_ALBUM,
+                        String.valueOf(hit.albumId));
+            } else {
+                mediaId = getFirstTrack(current.getChildren(MediaIDHelper.createMediaID(null,
+                        hit.category, String.valueOf(hit.id))), hit.category, String.valueOf(hit.id));
+            }
+        }
+        return mediaId;
+    }
+
+    private static String getExtra(Bundle extras, String key) {
+        String value = extras == null ? null : extras.getString(key);
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+
+    /**
+     * @return the non null values separated by blanks, e.g. a title and its artist as one query
+     */
+    private static String join(String... values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (value != null) {
+                joined.append(joined.length() > 0 ? " " : "").append(value);
+            }
+        }
+        return joined.toString();
+    }
+
+    private static String getFirstTrack(List<MediaMetadataCompat> tracks, String... categories) {
+        if (tracks.isEmpty()) {
+            return null;
+        }
+        return MediaIDHelper.createMediaID(
+                tracks.get(0).getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID), categories);
+    }
+
+    /**
+     * @return the index if it is built already, never loads or builds anything
+     */
+    SearchIndex peekSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Changes whenever the catalog is loaded or synced, so whatever was derived from an older
+     * catalog, or from MediaStore before there was one, can be told apart.
+     */
+    int getCatalogVersion() {
+        return catalogVersion;
+    }
+
+    /**
+     * Remembers a submitted search, recent ones are offered as suggestions.
+     */
+    public void recordQuery(String query) {
+        recentQueries.add(query);
+    }
+
+    /**
+     * @return recently submitted searches, most recent first
+     */
+    List<String> getRecentQueries() {
+        return recentQueries.get();
+    }
+
+    /**
+     * Counts a play of the track, tracks played often rank higher in search results.
+     */
+    public void recordPlay(String musicId) {
+        playCounts.increment(musicId);
+    }
+
+    /**
+     * Only these lists hold tracks; category lists hold albums, artists etc. whose ids
+     * would clash with track ids.
+     */
+    private boolean isPlayableParent(String mediaId) {
+        return MEDIA_ID_TRACKS.equals(mediaId) || MediaIDHelper.getHierarchy(mediaId).length == 2;
+    }
+
+    /**
+     * Children retrieved by {@link #retrieveMediaAsync(String, Callback)}. Only a parent that
+     * failed to load, or was evicted in the meantime, returns an empty list.
+     */
     public List<MediaBrowserCompat.MediaItem> getChildren(String mediaId) {
         FireLog.d(TAG, "(++) getChildren, mediaId=" + mediaId);
-        List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
+        BrowseCache.Entry entry = browseCache.get(mediaId);
+        if (entry == null) {
+            FireLog.w(TAG, "children not retrieved: " + mediaId);
+            return new ArrayList<>();
+        }
+        return entry.getItems();
+    }
+
+    /**
+     * Tracks of the list a queue is built from: all tracks, or one sub category.
+     * Falls back to retrieving the list if it isn't cached any more, so this must not be
+     * called on the main thread.
+     */
+    public List<MediaMetadataCompat> getPlayableMetadata(String category, String subCategory) {
+        String parentId = MEDIA_ID_TRACKS.equals(category)
+                ? MEDIA_ID_TRACKS : MediaIDHelper.createMediaID(null, category, subCategory);
+        BrowseCache.Entry entry = browseCache.get(parentId);
+        if (entry == null) {
+            retrieveMedia(parentId, null);
+            entry = browseCache.get(parentId);
+        }
+        return entry == null ? null : entry.getMetadata();
+    }
 
+    /**
+     * @return a view creating each media item from retrieved when it is read, so only the
+     * items actually sent to a client are ever built
+     */
+    private List<MediaBrowserCompat.MediaItem> createMediaItems(String mediaId,
+                                                                List<MediaMetadataCompat> retrieved) {
         if (mediaId.equals(MEDIA_ID_ROOT)) {
             // no item for root // root items are handled by Drawer
-
+            return new ArrayList<>();
         } else if (mediaId.equals(MEDIA_ID_TRACKS)) {
-            // fill the music List once and keep ever
-            musicList.addAll(mediaList);
-
-            for (MediaMetadataCompat metadata : getAllRetrievedMetadata()) {
-                mediaItems.add(createTracksMediaItem(metadata));
-            }
+            return new MediaItemList(retrieved, MEDIA_ID_TRACKS, MEDIA_ID_TRACKS_ALL,
+                    MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
         } else if (mediaId.equals(MEDIA_ID_PLAYLIST) || mediaId.equals(MEDIA_ID_ALBUM)
                 || mediaId.equals(MEDIA_ID_ARTIST) || mediaId.equals(MEDIA_ID_GENRE)
                 || mediaId.equals(MEDIA_ID_FOLDER)) {
-            String category = mediaId;
-            for (MediaMetadataCompat metadata : getAllRetrievedMetadata()) {
-                String subCategory = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-                mediaItems.add(createBrowsableMediaItemForSubCategory(category, subCategory, metadata));
-            }
+            return new MediaItemList(retrieved, mediaId, null,
+                    MediaBrowserCompat.MediaItem.FLAG_BROWSABLE);
         } else if (mediaId.startsWith(MEDIA_ID_PLAYLIST) || mediaId.startsWith(MEDIA_ID_ALBUM)
                 || mediaId.startsWith(MEDIA_ID_ARTIST) || mediaId.startsWith(MEDIA_ID_GENRE)
                 || mediaId.startsWith(MEDIA_ID_FOLDER)) {
             String category = MediaIDHelper.getHierarchy(mediaId)[0];
             String subCategory = MediaIDHelper.getHierarchy(mediaId)[1];
-            for (MediaMetadataCompat metadata : getAllRetrievedMetadata()) {
-                mediaItems.add(createPlayableMediaItem(category, subCategory, metadata));
-            }
-
-        } else {
-            FireLog.w(TAG, "unmatched mediaId: " + mediaId);
-        }
-        return mediaItems;
-    }
-
-    public List<MediaMetadataCompat> getAllRetrievedMetadata() {
-        ArrayList<MediaMetadataCompat> result = new ArrayList<>();
-        for (MediaMetadataCompat track : mediaList) {
-            result.add(track);
+            return new MediaItemList(retrieved, category, subCategory,
+                    MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
         }
-        return result;
+        FireLog.w(TAG, "unmatched mediaId: " + mediaId);
+        return new ArrayList<>();
     }
 
-    public List<MediaMetadataCompat> getAllRetrievedMusic() {
-        ArrayList<MediaMetadataCompat> result = new ArrayList<>();
-        for (MediaMetadataCompat track : musicList) {
-            result.add(track);
-        }
-        return result;
+    public MediaMetadataCompat getMusic(String musicId) {
+        MusicCatalog current = catalog;
+        MediaMetadataCompat music = current == null ? null : current.getMusic(musicId);
+        return music != null ? music : musicRegistry.get(musicId);
     }
 
-    private MediaBrowserCompat.MediaItem createTracksMediaItem(MediaMetadataCompat metadata) {
-        // Since mediaMetadata fields are immutable, we need to create a copy, so we
-        // can set a hierarchy-aware mediaID. We will need to know the media hierarchy
-        // when we get a onPlayFromMusicID call, so we can create the proper queue based
-        // on where the music was selected from (by artist, by genre, random, etc)
-        String hierarchyAwareMediaID = MediaIDHelper.createMediaID(
-                metadata.getDescription().getMediaId(), MEDIA_ID_TRACKS, MEDIA_ID_TRACKS_ALL);
-        MediaMetadataCompat copy = new MediaMetadataCompat.Builder(metadata)
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
-                .build();
-        return new MediaBrowserCompat.MediaItem(copy.getDescription(),
-                MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+    public interface Callback {
+        /**
+         * Called on the main thread with the children read so far when a long list is still
+         * being read, before {@link #onMusicCatalogReady(boolean)}. Not called for every parent.
+         */
+        void onFirstChildren(List<MediaBrowserCompat.MediaItem> children);
 
+        void onMusicCatalogReady(boolean success);
     }
 
-    private MediaBrowserCompat.MediaItem createBrowsableMediaItemForSubCategory(String category,
-                                                                                String subCategory,
-                                                                                MediaMetadataCompat metadata) {
-        String hierarchyAwareMediaID = MediaIDHelper.createMediaID(null, category, subCategory);
-        MediaMetadataCompat copy = new MediaMetadataCompat.Builder(metadata)
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
-                .build();
-
-        return new MediaBrowserCompat.MediaItem(copy.getDescription(),
-                MediaBrowserCompat.MediaItem.FLAG_BROWSABLE);
+    /**
+     * Receives the first children of a parent on the background thread retrieving it.
+     */
+    private interface ChildrenSink {
+        void onFirstChildren(List<MediaBrowserCompat.MediaItem> children);
     }
 
-    private MediaBrowserCompat.MediaItem createPlayableMediaItem(String category, String subCategory,
-                                                                 MediaMetadataCompat metadata) {
-        String musicId = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-        String hierarchyAwareMediaID = MediaIDHelper.createMediaID(musicId, category, subCategory);
-        MediaMetadataCompat copy = new MediaMetadataCompat.Builder(metadata)
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
-                .build();
+    /**
+     * One load of a parent and every callback waiting for it. Callbacks are added and
+     * called on the main thread only.
+     */
+    private static class InFlightLoad {
+        private final List<Callback> callbacks = new ArrayList<>();
+        // kept for callbacks joining after the first children went out
+        private List<MediaBrowserCompat.MediaItem> firstChildren;
 
-        return new MediaBrowserCompat.MediaItem(copy.getDescription(),
-                MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+        void join(Callback callback) {
+            if (callback == null) {
+                return;
+            }
+            callbacks.add(callback);
+            if (firstChildren != null) {
+                callback.onFirstChildren(firstChildren);
+            }
+        }
 
-    }
+        void deliverFirstChildren(List<MediaBrowserCompat.MediaItem> children) {
+            firstChildren = children;
+            for (Callback callback : new ArrayList<>(callbacks)) {
+                callback.onFirstChildren(children);
+            }
+        }
 
-    public MediaMetadataCompat getMusic(String musicId) {
-        for (MediaMetadataCompat metadataCompat : musicList) {
-            if (musicId.equals(metadataCompat.getDescription().getMediaId())) {
-                return metadataCompat;
+        void deliverReady(boolean success) {
+            for (Callback callback : new ArrayList<>(callbacks)) {
+                callback.onMusicCatalogReady(success);
             }
         }
-        return null;
     }
 
-    public interface Callback {
-        void onMusicCatalogReady(boolean success);
+    public interface CatalogListener {
+        /**
+         * Called on the provider thread after a sync changed the catalog, or MediaStore
+         * changes dropped the cached playlists and genres.
+         *
+         * @param parentIds browse parents whose children changed
+         */
+        void onCatalogChanged(Set<String> parentIds);
     }
 
 //    public synchronized void updateMusicArt(String musicId, Bitmap albumArt, Bitmap icon) {
@@ -214,7 +791,7 @@ public class MusicProvider {
 //
 //                .build();
 //
-//        MutableMediaMetadata mutableMetadata = musicList.get(musicId);
+//        MutableMediaMetadata mutableMetadata = musicRegistry.get(musicId);
 //        if (mutableMetadata == null) {
 //            throw new IllegalStateException("Unexpected error: Inconsistent data structures in " +
 //                    "MusicProvider");
@@ -223,6 +800,94 @@ public class MusicProvider {
 //        mutableMetadata.setMetadata(metadata);
 //    }
 
+    /**
+     * Media items of one browse parent, created on first read and kept for later requests
+     * for the same parent. Each item gets a hierarchy-aware media id, so we know where the
+     * music was selected from when onPlayFromMediaId builds the queue (by artist, by genre,
+     * all tracks etc). Catalog children are described straight from the catalog columns.
+     */
+    private static class MediaItemList extends AbstractList<MediaBrowserCompat.MediaItem>
+            implements RandomAccess {
+        private final List<MediaMetadataCompat> metadata;
+        private final MusicCatalog.ChildList children;
+        private final String category;
+        // null for a category list, whose children are browsable sub categories
+        private final String subCategory;
+        private final int flags;
+        // items are immutable, two threads building the same one at once is harmless
+        private final MediaBrowserCompat.MediaItem[] items;
+
+        MediaItemList(List<MediaMetadataCompat> metadata, String category, String subCategory,
+                      int flags) {
+            this.metadata = metadata;
+            this.children = metadata instanceof MusicCatalog.ChildList
+                    ? (MusicCatalog.ChildList) metadata : null;
+            this.category = category;
+            this.subCategory = subCategory;
+            this.flags = flags;
+            this.items = new MediaBrowserCompat.MediaItem[metadata.size()];
+        }
+
+        @Override
+        public MediaBrowserCompat.MediaItem get(int index) {
+            MediaBrowserCompat.MediaItem item = items[index];
+            if (item == null) {
+                item = createMediaItem(index);
+                items[index] = item;
+            }
+            return item;
+        }
+
+        private MediaBrowserCompat.MediaItem createMediaItem(int index) {
+            MediaMetadataCompat track = children == null ? metadata.get(index) : null;
+            String childId = children != null ? children.getChildId(index)
+                    : track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+            String hierarchyAwareMediaID = subCategory == null
+                    ? MediaIDHelper.createMediaID(null, category, childId)
+                    : MediaIDHelper.createMediaID(childId, category, subCategory);
+            MediaDescriptionCompat description = children != null
+                    ? children.getDescription(index, hierarchyAwareMediaID)
+                    : DescriptionFactory.create(hierarchyAwareMediaID, track);
+            return new MediaBrowserCompat.MediaItem(description, flags);
+        }
+
+        @Override
+        public int size() {
+            return items.length;
+        }
+
+        @Override
+        public String toString() {
+            return "MediaItemList{category=" + category + ", subCategory=" + subCategory
+                    + ", size=" + size() + "}";
+        }
+    }
+
+    private static class JoinedList<T> extends AbstractList<T> implements RandomAccess {
+        private final List<T> first;
+        private final List<T> second;
+
+        JoinedList(List<T> first, List<T> second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public T get(int index) {
+            return index < first.size() ? first.get(index) : second.get(index - first.size());
+        }
+
+        @Override
+        public int size() {
+            return first.size() + second.size();
+        }
+
+        @Override
+        public String toString() {
+            return "JoinedList{" + first + ", " + second + "}";
+        }
+    }
+
     private static class LazyHolder {
         public static final MusicProvider INSTANCE = new MusicProvider();
     }
@@ -2,9 +2,18 @@ package com.firekernel.musicplayer.source;
 
 import android.support.v4.media.MediaMetadataCompat;
 
-import java.util.Iterator;
-
 public interface MusicProviderSource {
+    String CUSTOM_METADATA_ALBUM_ID = "__ALBUM_ID__";
+    String CUSTOM_METADATA_ARTIST_ID = "__ARTIST_ID__";
+    String CUSTOM_METADATA_DATE_MODIFIED = "__DATE_MODIFIED__";
+    // summary of a browsable album, artist, genre or folder, also set as description extras
+    String CUSTOM_METADATA_TRACK_COUNT = "__TRACK_COUNT__";
+    String CUSTOM_METADATA_TOTAL_DURATION = "__TOTAL_DURATION__";
+    String CUSTOM_METADATA_FIRST_YEAR = "__FIRST_YEAR__";
+    String CUSTOM_METADATA_LAST_YEAR = "__LAST_YEAR__";
 
-    Iterator<MediaMetadataCompat> iterator(String mediaId);
+    /**
+     * @return children of mediaId, read as the iterator advances; the caller must close it
+     */
+    CloseableIterator<MediaMetadataCompat> iterator(String mediaId);
 }
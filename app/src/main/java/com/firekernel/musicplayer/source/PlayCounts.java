@@ -0,0 +1,42 @@
+package com.firekernel.musicplayer.source;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.firekernel.musicplayer.FireApplication;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How often each track was played, keyed by musicId. A track counts once every time it
+ * becomes the current one of the queue. Only used to rank search results, so a lost write
+ * doesn't matter and counts are stored asynchronously.
+ */
+class PlayCounts {
+    private static final String PREFERENCES_NAME = "play_counts";
+
+    private final SharedPreferences preferences;
+
+    PlayCounts() {
+        preferences = FireApplication.getInstance()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return times played by musicId, for every track played at least once
+     */
+    Map<Long, Integer> getAll() {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, ?> count : preferences.getAll().entrySet()) {
+            if (count.getValue() instanceof Integer) {
+                counts.put(Long.parseLong(count.getKey()), (Integer) count.getValue());
+            }
+        }
+        return counts;
+    }
+
+    synchronized void increment(String musicId) {
+        preferences.edit().putInt(musicId, preferences.getInt(musicId, 0) + 1).apply();
+    }
+}
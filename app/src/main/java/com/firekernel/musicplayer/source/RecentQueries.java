@@ -0,0 +1,72 @@
+package com.firekernel.musicplayer.source;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.firekernel.musicplayer.FireApplication;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Searches submitted lately, most recent first, offered as suggestions by
+ * {@link SearchSuggestionProvider}. A query submitted again moves to the top instead of being
+ * listed twice, queries with the same {@link SearchIndex#normalize(String) search key} count
+ * as the same. Stored asynchronously as one preference, a lost write doesn't matter.
+ */
+class RecentQueries {
+    private static final String PREFERENCES_NAME = "recent_queries";
+    private static final String KEY_QUERIES = "queries";
+    private static final int MAX_QUERIES = 20;
+    // queries are trimmed and can't hold one
+    private static final String SEPARATOR = "\n";
+
+    private final SharedPreferences preferences;
+    private List<String> queries;
+
+    RecentQueries() {
+        preferences = FireApplication.getInstance()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    synchronized List<String> get() {
+        return new ArrayList<>(load());
+    }
+
+    synchronized void add(String query) {
+        String trimmed = query == null ? "" : query.replace(SEPARATOR, " ").trim();
+        String key = SearchIndex.normalize(trimmed);
+        if (key.isEmpty()) {
+            return;
+        }
+        List<String> recent = load();
+        for (Iterator<String> iterator = recent.iterator(); iterator.hasNext(); ) {
+            if (SearchIndex.normalize(iterator.next()).equals(key)) {
+                iterator.remove();
+            }
+        }
+        recent.add(0, trimmed);
+        while (recent.size() > MAX_QUERIES) {
+            recent.remove(recent.size() - 1);
+        }
+        StringBuilder stored = new StringBuilder();
+        for (String recentQuery : recent) {
+            stored.append(stored.length() > 0 ? SEPARATOR : "").append(recentQuery);
+        }
+        preferences.edit().putString(KEY_QUERIES, stored.toString()).apply();
+    }
+
+    private List<String> load() {
+        if (queries == null) {
+            queries = new ArrayList<>();
+            String stored = preferences.getString(KEY_QUERIES, "");
+            for (String query : stored.split(SEPARATOR)) {
+                if (!query.isEmpty()) {
+                    queries.add(query);
+                }
+            }
+        }
+        return queries;
+    }
+}
@@ -13,8 +13,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Utility class to get a list of MusicTrack's based on a server-side JSON
@@ -36,23 +35,50 @@ public class RemoteSource implements MusicProviderSource {
     private static final String JSON_TOTAL_TRACK_COUNT = "totalTrackCount";
     private static final String JSON_DURATION = "duration";
 
+    /**
+     * The catalog JSON is fetched up front, its tracks are only built as they are read.
+     */
     @Override
-    public Iterator<MediaMetadataCompat> iterator(String mediaId) {
+    public CloseableIterator<MediaMetadataCompat> iterator(String mediaId) {
         try {
             int slashPos = CATALOG_URL.lastIndexOf('/');
-            String path = CATALOG_URL.substring(0, slashPos + 1);
+            final String path = CATALOG_URL.substring(0, slashPos + 1);
             JSONObject jsonObj = fetchJSONFromUrl(CATALOG_URL);
-            ArrayList<MediaMetadataCompat> tracks = new ArrayList<>();
-            if (jsonObj != null) {
-                JSONArray jsonTracks = jsonObj.getJSONArray(JSON_MUSIC);
+            final JSONArray jsonTracks = jsonObj == null ? null : jsonObj.getJSONArray(JSON_MUSIC);
+            if (jsonTracks == null) {
+                return CloseableIterators.empty();
+            }
+            return new CloseableIterator<MediaMetadataCompat>() {
+                private int next;
 
-                if (jsonTracks != null) {
-                    for (int j = 0; j < jsonTracks.length(); j++) {
-                        tracks.add(buildFromJSON(jsonTracks.getJSONObject(j), path));
+                @Override
+                public boolean hasNext() {
+                    return next < jsonTracks.length();
+                }
+
+                @Override
+                public MediaMetadataCompat next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    try {
+                        return buildFromJSON(jsonTracks.getJSONObject(next++), path);
+                    } catch (JSONException e) {
+                        FireLog.e(TAG, "Could not retrieve music list", e);
+                        throw new RuntimeException("Could not retrieve music list", e);
                     }
                 }
-            }
-            return tracks.iterator();
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("remove");
+                }
+
+                @Override
+                public void close() {
+                    next = jsonTracks.length();
+                }
+            };
         } catch (JSONException e) {
             FireLog.e(TAG, "Could not retrieve music list", e);
             throw new RuntimeException("Could not retrieve music list", e);
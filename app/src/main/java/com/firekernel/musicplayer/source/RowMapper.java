@@ -0,0 +1,36 @@
+package com.firekernel.musicplayer.source;
+
+import android.database.Cursor;
+
+/**
+ * Turns cursor rows into objects. Each mapper declares exactly the columns it reads, which
+ * is the projection it is queried with, and gets their indices resolved once per cursor
+ * instead of looking every column up by name on every row.
+ */
+abstract class RowMapper<T> {
+    private final String[] projection;
+
+    RowMapper(String... projection) {
+        this.projection = projection;
+    }
+
+    String[] getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return index in the cursor of every projection column, in projection order
+     */
+    int[] resolve(Cursor cursor) {
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = cursor.getColumnIndexOrThrow(projection[i]);
+        }
+        return columns;
+    }
+
+    /**
+     * @param columns as returned by {@link #resolve(Cursor)} for this cursor
+     */
+    abstract T map(Cursor cursor, int[] columns);
+}
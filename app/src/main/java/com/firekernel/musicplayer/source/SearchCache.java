@@ -0,0 +1,49 @@
+package com.firekernel.musicplayer.source;
+
+import android.support.v4.util.LruCache;
+
+/**
+ * Results of recent searches keyed by the {@link SearchIndex#normalize(String) search key} of
+ * the query and the limit, so typing a query again or going back to search is served from
+ * memory. Least recently used results are evicted once {@link #MAX_SEARCHES} is reached.
+ * <p>
+ * Every result belongs to the catalog version it was searched on; a newer version drops
+ * the whole cache and results still arriving for an older one aren't cached.
+ */
+class SearchCache<V> {
+    private static final int MAX_SEARCHES = 32;
+
+    private final LruCache<String, V> cache = new LruCache<>(MAX_SEARCHES);
+    private int version;
+
+    synchronized V get(String query, int limit, int version) {
+        if (!checkVersion(version)) {
+            return null;
+        }
+        return cache.get(getKey(query, limit));
+    }
+
+    synchronized void put(String query, int limit, int version, V result) {
+        if (checkVersion(version)) {
+            cache.put(getKey(query, limit), result);
+        }
+    }
+
+    /**
+     * @return false if version is older than the cached results
+     */
+    private boolean checkVersion(int version) {
+        if (version < this.version) {
+            return false;
+        }
+        if (version > this.version) {
+            cache.evictAll();
+            this.version = version;
+        }
+        return true;
+    }
+
+    private static String getKey(String query, int limit) {
+        return SearchIndex.normalize(query) + "|" + limit;
+    }
+}
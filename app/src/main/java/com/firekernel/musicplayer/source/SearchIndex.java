@@ -0,0 +1,750 @@
+package com.firekernel.musicplayer.source;
+
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.firekernel.musicplayer.utils.FireLog;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ALBUM;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ARTIST;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_TRACKS;
+
+/**
+ * In-memory inverted index over the track titles, album titles and artist names of a
+ * {@link MusicCatalog}, so a search doesn't scan MediaStore with LIKE on every keystroke.
+ * <p>
+ * Names are split into the words of their {@link #normalize(String) search key} and every
+ * word of a query has to match a word of a result: exactly, as a prefix (a range of the sorted
+ * term dictionary) or, failing both, within a small edit distance found through a trigram
+ * index, so typos like "beatels" still find something. None of these scans the dictionary.
+ * Results are scored by how well each query word matched and in which field, e.g. a track
+ * title counts more than its artist, and tracks played often get a boost. Only the best few
+ * are kept, in a bounded heap.
+ * <p>
+ * An index is immutable once built, so any number of searches read it at the same time without
+ * locking. A sync {@link #update(MusicCatalog, MusicCatalog, Set, Map) updates} a copy, which
+ * replaces it. Play counts are a snapshot taken when it is built or updated.
+ */
+class SearchIndex {
+    private static final String TAG = FireLog.makeLogTag(SearchIndex.class);
+    // how well a query word matched a word of a field
+    private static final float EXACT = 1f;
+    private static final float PREFIX = 0.8f;
+    private static final float FUZZY = 0.4f;
+    // field weights
+    private static final float TITLE_WEIGHT = 1f;
+    private static final float ARTIST_WEIGHT = 0.5f;
+    private static final float ALBUM_WEIGHT = 0.4f;
+    // added per e-fold of plays, a track played ~150 times gains about one exact title word
+    private static final float PLAY_WEIGHT = 0.2f;
+
+    // letters NFKD doesn't decompose, with their usual spelling in plain latin letters
+    private static final Map<Character, String> FOLDED_LETTERS = new HashMap<>();
+
+    static {
+        FOLDED_LETTERS.put('\u00df', "ss");
+        FOLDED_LETTERS.put('\u00e6', "ae");
+        FOLDED_LETTERS.put('\u00f0', "d");
+        FOLDED_LETTERS.put('\u00f8', "o");
+        FOLDED_LETTERS.put('\u00fe', "th");
+        FOLDED_LETTERS.put('\u0111', "d");
+        FOLDED_LETTERS.put('\u0131', "i");
+        FOLDED_LETTERS.put('\u0142', "l");
+        FOLDED_LETTERS.put('\u0153', "oe");
+    }
+
+    private final Section tracks;
+    private final Section albums;
+    private final Section artists;
+    // musicId to times played, tracks never played are missing
+    private final Map<Long, Integer> playCounts;
+    private final MusicCatalog catalog;
+    // tracks played often first, ties in catalog (title) order
+    private final Scorer byPlays = new Scorer() {
+        @Override
+        public void score(Match match) {
+            Integer plays = playCounts.get(match.entry.id);
+            if (plays != null) {
+                match.score += PLAY_WEIGHT * (float) Math.log1p(plays);
+            }
+            match.order = catalog.indexOf(match.entry.id);
+        }
+    };
+
+    private SearchIndex(MusicCatalog catalog, Map<Long, Integer> playCounts, Section tracks,
+                        Section albums, Section artists) {
+        this.catalog = catalog;
+        this.playCounts = playCounts;
+        this.tracks = tracks;
+        this.albums = albums;
+        this.artists = artists;
+    }
+
+    /**
+     * @param playCounts times played by musicId, see {@link PlayCounts#getAll()}
+     */
+    static SearchIndex build(MusicCatalog catalog, Map<Long, Integer> playCounts) {
+        FireLog.d(TAG, "(++) build, tracks=" + catalog.size());
+        SearchIndex index = new SearchIndex(catalog, playCounts, new Section(), new Section(),
+                new Section());
+        for (int track = 0; track < catalog.size(); track++) {
+            index.putTrack(track);
+        }
+        index.putCategories(null, null);
+        FireLog.d(TAG, "Index built, " + index);
+        return index;
+    }
+
+    /**
+     * @return words of the search key of text, empty for null
+     */
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String word : normalize(text).split(" ")) {
+            if (!word.isEmpty()) {
+                tokens.add(word);
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Search key of text: compatibility decomposed (NFKD) with the diacritics dropped, case
+     * folded, letters without a decomposition spelled out ("\u00f8" as "o", "\u00df" as "ss"),
+     * apostrophes removed and any other run of non letters or digits turned into a blank.
+     * So "Beyonc\u00e9" and "beyonce", or "Don't" and "dont", get the same key. Keys of
+     * entries are computed once when they are indexed, only the query is normalized per search.
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        StringBuilder key = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+                    || type == Character.ENCLOSING_MARK || c == '\'' || c == '\u2019') {
+                continue;
+            }
+            if (!Character.isLetterOrDigit(c)) {
+                if (key.length() > 0 && key.charAt(key.length() - 1) != ' ') {
+                    key.append(' ');
+                }
+                continue;
+            }
+            // upper then lower folds variants such as the final sigma, without the locale
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            String spelled = FOLDED_LETTERS.get(folded);
+            if (spelled != null) {
+                key.append(spelled);
+            } else {
+                key.append(folded);
+            }
+        }
+        return key.toString().trim();
+    }
+
+    /**
+     * Indexes the next catalog version, reindexing only the rows a sync changed. This index is
+     * left as it is, searches still running on it aren't affected.
+     *
+     * @param changed    rows MediaStore reported as added or modified
+     * @param removedIds musicIds that disappeared
+     * @param playCounts a fresh snapshot of the play counts
+     * @return the index of next
+     */
+    SearchIndex update(MusicCatalog next, MusicCatalog changed, Set<String> removedIds,
+                       Map<Long, Integer> playCounts) {
+        FireLog.d(TAG, "(++) update, changed=" + changed.size() + ", removed=" + removedIds.size());
+        SearchIndex index = new SearchIndex(next, playCounts, new Section(tracks),
+                new Section(albums), new Section(artists));
+        index.applyChanges(changed, removedIds);
+        return index;
+    }
+
+    private void applyChanges(MusicCatalog changed, Set<String> removedIds) {
+        Set<Long> touchedAlbums = new HashSet<>();
+        Set<Long> touchedArtists = new HashSet<>();
+        List<Long> touchedTracks = new ArrayList<>();
+        for (String musicId : removedIds) {
+            touchedTracks.add(Long.parseLong(musicId));
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            touchedTracks.add(changed.getId(i));
+        }
+        for (long id : touchedTracks) {
+            Entry old = tracks.remove(id);
+            if (old != null) {
+                touchedAlbums.add(old.albumId);
+                touchedArtists.add(old.artistId);
+            }
+            int track = catalog.indexOf(id);
+            if (track >= 0) {
+                Entry entry = putTrack(track);
+                touchedAlbums.add(entry.albumId);
+                touchedArtists.add(entry.artistId);
+            }
+        }
+        for (long albumId : touchedAlbums) {
+            albums.remove(albumId);
+        }
+        for (long artistId : touchedArtists) {
+            artists.remove(artistId);
+        }
+        putCategories(touchedAlbums, touchedArtists);
+    }
+
+    private Entry putTrack(int track) {
+        int album = catalog.getAlbumOrdinal(track);
+        int artist = catalog.getArtistOrdinal(track);
+        Entry entry = new Entry(catalog.getId(track), catalog.getTitle(track), null, null,
+                catalog.getAlbumIdAt(album), catalog.getArtistIdAt(artist),
+                new String[]{catalog.getTitle(track), catalog.getArtistNameAt(artist),
+                        catalog.getAlbumTitleAt(album)},
+                new float[]{TITLE_WEIGHT, ARTIST_WEIGHT, ALBUM_WEIGHT});
+        tracks.put(entry);
+        return entry;
+    }
+
+    /**
+     * Indexes every album and artist by the first track listing it, like the browse lists.
+     *
+     * @param onlyAlbums  album ids to index, null for all of them
+     * @param onlyArtists artist ids to index, null for all of them
+     */
+    private void putCategories(Set<Long> onlyAlbums, Set<Long> onlyArtists) {
+        Set<Long> seenAlbums = new HashSet<>();
+        Set<Long> seenArtists = new HashSet<>();
+        for (int track = 0; track < catalog.size(); track++) {
+            int album = catalog.getAlbumOrdinal(track);
+            int artist = catalog.getArtistOrdinal(track);
+            long albumId = catalog.getAlbumIdAt(album);
+            long artistId = catalog.getArtistIdAt(artist);
+            if ((onlyAlbums == null || onlyAlbums.contains(albumId)) && seenAlbums.add(albumId)) {
+                String title = catalog.getAlbumTitleAt(album);
+                String artistName = catalog.getArtistNameAt(artist);
+                albums.put(new Entry(albumId, title, artistName, catalog.getAlbumArtAt(album),
+                        albumId, artistId, new String[]{title, artistName},
+                        new float[]{TITLE_WEIGHT, ARTIST_WEIGHT}));
+            }
+            if ((onlyArtists == null || onlyArtists.contains(artistId)) && seenArtists.add(artistId)) {
+                String name = catalog.getArtistNameAt(artist);
+                artists.put(new Entry(artistId, name, null, null, albumId, artistId,
+                        new String[]{name}, new float[]{TITLE_WEIGHT}));
+            }
+        }
+    }
+
+    /**
+     * @return best matching tracks first, ties in catalog (title) order; a view on the
+     * catalog, so media items can be described straight from its columns
+     */
+    List<MediaMetadataCompat> searchTracks(String query, int limit) {
+        List<Match> matches = tracks.search(tokenize(query), limit, byPlays);
+        int[] positions = new int[matches.size()];
+        for (int i = 0; i < positions.length; i++) {
+            // set by byPlays
+            positions[i] = matches.get(i).order;
+        }
+        return catalog.getTracksAt(positions);
+    }
+
+    List<MediaMetadataCompat> searchAlbums(String query, int limit) {
+        List<MediaMetadataCompat> results = new ArrayList<>();
+        for (Match match : albums.search(tokenize(query), limit, null)) {
+            results.add(new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, String.valueOf(match.entry.id))
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, match.entry.title)
+                    .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, match.entry.artist)
+                    .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, match.entry.albumArt)
+                    .build());
+        }
+        return results;
+    }
+
+    List<MediaMetadataCompat> searchArtists(String query, int limit) {
+        List<MediaMetadataCompat> results = new ArrayList<>();
+        for (Match match : artists.search(tokenize(query), limit, null)) {
+            results.add(new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, String.valueOf(match.entry.id))
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, match.entry.title)
+                    .build());
+        }
+        return results;
+    }
+
+    /**
+     * @return the track best matching a spoken request, e.g. "yesterday beatles", whose words
+     * may name its title, artist and album; null if there is none
+     */
+    Hit findTrack(String query) {
+        return find(tracks, MEDIA_ID_TRACKS, query, byPlays);
+    }
+
+    /**
+     * @return the album best matching a request naming its title and maybe its artist
+     */
+    Hit findAlbum(String query) {
+        return find(albums, MEDIA_ID_ALBUM, query, null);
+    }
+
+    Hit findArtist(String query) {
+        return find(artists, MEDIA_ID_ARTIST, query, null);
+    }
+
+    /**
+     * For a request that doesn't say what it names: the best of the best track, album and
+     * artist by how well the words matched, play counts aside. On a tie the artist wins over
+     * the album and the album over the track, so "play thriller" plays the whole album.
+     */
+    Hit findAny(String query) {
+        Hit best = null;
+        for (Hit hit : new Hit[]{find(artists, MEDIA_ID_ARTIST, query, null),
+                find(albums, MEDIA_ID_ALBUM, query, null),
+                find(tracks, MEDIA_ID_TRACKS, query, byPlays)}) {
+            if (hit != null && (best == null || hit.relevance > best.relevance)) {
+                best = hit;
+            }
+        }
+        return best;
+    }
+
+    private static Hit find(Section section, String category, String query, Scorer scorer) {
+        List<Match> matches = section.search(tokenize(query), 1, scorer);
+        if (matches.isEmpty()) {
+            return null;
+        }
+        Match match = matches.get(0);
+        return new Hit(category, match.entry.id, match.entry.albumId, match.relevance);
+    }
+
+    /**
+     * Scores rows that aren't part of the index, e.g. playlists found in MediaStore, by their
+     * titles the same way as indexed entries.
+     *
+     * @return the limit best rows, best first
+     */
+    static List<MediaMetadataCompat> rank(String query, List<MediaMetadataCompat> rows, int limit) {
+        Section section = new Section();
+        for (int i = 0; i < rows.size(); i++) {
+            String title = rows.get(i).getString(MediaMetadataCompat.METADATA_KEY_TITLE);
+            section.put(new Entry(i, title, null, null, 0, 0, new String[]{title},
+                    new float[]{TITLE_WEIGHT}));
+        }
+        List<MediaMetadataCompat> ranked = new ArrayList<>();
+        Set<Long> included = new HashSet<>();
+        for (Match match : section.search(tokenize(query), limit, null)) {
+            ranked.add(rows.get((int) match.entry.id));
+            included.add(match.entry.id);
+        }
+        // rows matched in the middle of a word by a short query still come last, in their order
+        for (int i = 0; i < rows.size() && ranked.size() < limit; i++) {
+            if (!included.contains((long) i)) {
+                ranked.add(rows.get(i));
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * Edits allowed for a query word to still match: none for short words, which would
+     * match almost anything, one for medium and two for long ones.
+     */
+    static int getMaxDistance(String token) {
+        return token.length() < 4 ? 0 : (token.length() < 7 ? 1 : 2);
+    }
+
+    /**
+     * Optimal string alignment distance: insertions, deletions, substitutions and swaps of
+     * adjacent letters, so "beatels" is one edit away from "beatles".
+     *
+     * @return the distance, or max + 1 as soon as it is known to exceed max
+     */
+    static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+                        && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    /**
+     * @return the trigrams of a word padded with one blank on each side, so a word of n
+     * letters has n trigrams and short words have some too
+     */
+    static String[] trigrams(String term) {
+        String padded = " " + term + " ";
+        String[] trigrams = new String[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = padded.substring(i, i + 3);
+        }
+        return trigrams;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchIndex{tracks=" + tracks.entries.size() + ", albums=" + albums.entries.size()
+                + ", artists=" + artists.entries.size() + ", terms=" + (tracks.terms.size()
+                + albums.terms.size() + artists.terms.size()) + "}";
+    }
+
+    /**
+     * The entry a spoken request resolved to.
+     */
+    static class Hit {
+        // MEDIA_ID_TRACKS, MEDIA_ID_ALBUM or MEDIA_ID_ARTIST
+        final String category;
+        final long id;
+        // album of a track, to queue the track with the rest of its album
+        final long albumId;
+        // score of the query words alone, comparable across categories
+        final float relevance;
+
+        Hit(String category, long id, long albumId, float relevance) {
+            this.category = category;
+            this.id = id;
+            this.albumId = albumId;
+            this.relevance = relevance;
+        }
+
+        @Override
+        public String toString() {
+            return "Hit{category=" + category + ", id=" + id + ", relevance=" + relevance + "}";
+        }
+    }
+
+    /**
+     * Adjusts the score and order of a match beyond its words, e.g. by play count.
+     */
+    private interface Scorer {
+        void score(Match match);
+    }
+
+    /**
+     * A track, album or artist with the fields needed to rank and show it.
+     */
+    private static class Entry {
+        final long id;
+        final String title;
+        // album entries only
+        final String artist;
+        final String albumArt;
+        final long albumId;
+        final long artistId;
+        // words of every searchable field, and the weight of each field
+        final String[][] fields;
+        final float[] weights;
+        final String[] terms;
+
+        Entry(long id, String title, String artist, String albumArt, long albumId, long artistId,
+              String[] fieldValues, float[] weights) {
+            this.id = id;
+            this.title = title;
+            this.artist = artist;
+            this.albumArt = albumArt;
+            this.albumId = albumId;
+            this.artistId = artistId;
+            this.weights = weights;
+            fields = new String[fieldValues.length][];
+            Set<String> distinct = new LinkedHashSet<>();
+            for (int i = 0; i < fieldValues.length; i++) {
+                fields[i] = tokenize(fieldValues[i]);
+                distinct.addAll(Arrays.asList(fields[i]));
+            }
+            terms = distinct.toArray(new String[distinct.size()]);
+        }
+
+        /**
+         * @param quality how well each term matched one query word
+         * @return best weighted match of that word in any field
+         */
+        float score(Map<String, Float> quality) {
+            float best = 0;
+            for (int i = 0; i < fields.length; i++) {
+                for (String word : fields[i]) {
+                    Float value = quality.get(word);
+                    if (value != null) {
+                        best = Math.max(best, value * weights[i]);
+                    }
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * An entry matching a query and its score.
+     */
+    private static class Match {
+        final Entry entry;
+        // score of the query words, before any Scorer
+        final float relevance;
+        float score;
+        // breaks ties, e.g. the catalog position; -1 to order by title
+        int order = -1;
+
+        Match(Entry entry, float score) {
+            this.entry = entry;
+            this.relevance = score;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Best match first: higher score, then lower order, then title.
+     */
+    private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+        @Override
+        public int compare(Match lhs, Match rhs) {
+            if (lhs.score != rhs.score) {
+                return lhs.score > rhs.score ? -1 : 1;
+            }
+            if (lhs.order != rhs.order) {
+                return lhs.order < rhs.order ? -1 : 1;
+            }
+            String left = lhs.entry.title == null ? "" : lhs.entry.title;
+            String right = rhs.entry.title == null ? "" : rhs.entry.title;
+            return left.compareToIgnoreCase(right);
+        }
+    };
+
+    /**
+     * Entries of one kind and their sorted term dictionary, each term mapping to the ids of
+     * the entries containing it. Terms are also indexed by trigram, which narrows a typo down
+     * to the few terms worth an edit distance check.
+     */
+    private static class Section {
+        final Map<Long, Entry> entries;
+        final TreeMap<String, Set<Long>> terms;
+        final Map<String, List<String>> trigramTerms;
+
+        Section() {
+            entries = new HashMap<>();
+            terms = new TreeMap<>();
+            trigramTerms = new HashMap<>();
+        }
+
+        /**
+         * A copy to be changed without affecting other, entries are immutable and shared.
+         */
+        Section(Section other) {
+            entries = new HashMap<>(other.entries);
+            terms = new TreeMap<>();
+            for (Map.Entry<String, Set<Long>> term : other.terms.entrySet()) {
+                terms.put(term.getKey(), new HashSet<>(term.getValue()));
+            }
+            trigramTerms = new HashMap<>(other.trigramTerms.size());
+            for (Map.Entry<String, List<String>> trigram : other.trigramTerms.entrySet()) {
+                trigramTerms.put(trigram.getKey(), new ArrayList<>(trigram.getValue()));
+            }
+        }
+
+        void put(Entry entry) {
+            remove(entry.id);
+            entries.put(entry.id, entry);
+            for (String term : entry.terms) {
+                Set<Long> ids = terms.get(term);
+                if (ids == null) {
+                    ids = new HashSet<>();
+                    terms.put(term, ids);
+                    for (String trigram : trigrams(term)) {
+                        List<String> withTrigram = trigramTerms.get(trigram);
+                        if (withTrigram == null) {
+                            withTrigram = new ArrayList<>();
+                            trigramTerms.put(trigram, withTrigram);
+                        }
+                        withTrigram.add(term);
+                    }
+                }
+                ids.add(entry.id);
+            }
+        }
+
+        Entry remove(long id) {
+            Entry entry = entries.remove(id);
+            if (entry != null) {
+                for (String term : entry.terms) {
+                    Set<Long> ids = terms.get(term);
+                    if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                        terms.remove(term);
+                        for (String trigram : trigrams(term)) {
+                            List<String> withTrigram = trigramTerms.get(trigram);
+                            if (withTrigram != null && withTrigram.remove(term) && withTrigram.isEmpty()) {
+                                trigramTerms.remove(trigram);
+                            }
+                        }
+                    }
+                }
+            }
+            return entry;
+        }
+
+        /**
+         * Every token has to match a word of the entry. The score of an entry is the sum, over
+         * the tokens, of the best weighted match quality of each.
+         *
+         * @param scorer adjusts every match before ranking, may be null
+         * @return the limit best matches, best first
+         */
+        List<Match> search(String[] tokens, int limit, Scorer scorer) {
+            List<Match> results = new ArrayList<>();
+            if (tokens.length == 0 || limit <= 0) {
+                return results;
+            }
+            List<Map<String, Float>> qualities = new ArrayList<>();
+            Set<Long> candidates = null;
+            for (String token : tokens) {
+                Map<String, Float> quality = getMatchingTerms(token);
+                Set<Long> ids = new HashSet<>();
+                for (String term : quality.keySet()) {
+                    ids.addAll(terms.get(term));
+                }
+                if (candidates == null) {
+                    candidates = ids;
+                } else {
+                    candidates.retainAll(ids);
+                }
+                if (candidates.isEmpty()) {
+                    return results;
+                }
+                qualities.add(quality);
+            }
+
+            // the worst of the best matches on top, so it is the one dropped
+            PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, Collections.reverseOrder(BEST_FIRST));
+            for (long id : candidates) {
+                Entry entry = entries.get(id);
+                float score = 0;
+                for (Map<String, Float> quality : qualities) {
+                    score += entry.score(quality);
+                }
+                Match match = new Match(entry, score);
+                if (scorer != null) {
+                    scorer.score(match);
+                }
+                best.offer(match);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+            results.addAll(best);
+            Collections.sort(results, BEST_FIRST);
+            return results;
+        }
+
+        /**
+         * @return terms matching token and how well: exactly or by prefix, or within
+         * {@link #getMaxDistance(String)} edits if neither matched
+         */
+        private Map<String, Float> getMatchingTerms(String token) {
+            Map<String, Float> quality = new HashMap<>();
+            for (String term : terms.subMap(token, token + Character.MAX_VALUE).keySet()) {
+                quality.put(term, term.equals(token) ? EXACT : PREFIX);
+            }
+            if (quality.isEmpty()) {
+                for (Map.Entry<String, Integer> similar : getSimilarTerms(token).entrySet()) {
+                    quality.put(similar.getKey(), FUZZY / similar.getValue());
+                }
+            }
+            return quality;
+        }
+
+        /**
+         * A term within max edits shares at least n - 4 * max of the n distinct trigrams of
+         * the token: an insertion, deletion or substitution changes at most three of them and
+         * a swap of adjacent letters, which {@link #distance(String, String, int)} counts as one
+         * edit, at most four. Only terms passing that count are checked. A short word with a
+         * swap in the middle, e.g. "axno" for "anxo", may share none at all, so every single
+         * swap is also looked up in the dictionary.
+         *
+         * @return terms within the token's edit distance, with their distance
+         */
+        private Map<String, Integer> getSimilarTerms(String token) {
+            Map<String, Integer> similar = new HashMap<>();
+            int max = getMaxDistance(token);
+            if (max == 0) {
+                return similar;
+            }
+            Set<String> tokenTrigrams = new HashSet<>(Arrays.asList(trigrams(token)));
+            Map<String, Integer> shared = new HashMap<>();
+            for (String trigram : tokenTrigrams) {
+                List<String> withTrigram = trigramTerms.get(trigram);
+                if (withTrigram == null) {
+                    continue;
+                }
+                for (String term : withTrigram) {
+                    Integer count = shared.get(term);
+                    shared.put(term, count == null ? 1 : count + 1);
+                }
+            }
+            int minShared = Math.max(1, tokenTrigrams.size() - 4 * max);
+            for (Map.Entry<String, Integer> candidate : shared.entrySet()) {
+                if (candidate.getValue() < minShared) {
+                    continue;
+                }
+                int distance = distance(token, candidate.getKey(), max);
+                if (distance <= max) {
+                    similar.put(candidate.getKey(), distance);
+                }
+            }
+            char[] swapped = token.toCharArray();
+            for (int i = 0; i + 1 < swapped.length; i++) {
+                swap(swapped, i);
+                String term = new String(swapped);
+                if (!similar.containsKey(term) && terms.containsKey(term)) {
+                    similar.put(term, 1);
+                }
+                swap(swapped, i);
+            }
+            return similar;
+        }
+
+        private static void swap(char[] letters, int at) {
+            char letter = letters[at];
+            letters[at] = letters[at + 1];
+            letters[at + 1] = letter;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.firekernel.musicplayer.source;
 
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
 import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
 
 import com.firekernel.musicplayer.FireApplication;
@@ -11,27 +15,44 @@ import com.firekernel.musicplayer.R;
 import com.firekernel.musicplayer.model.Category;
 import com.firekernel.musicplayer.model.MediaItemWrapper;
 import com.firekernel.musicplayer.utils.FireLog;
+import com.firekernel.musicplayer.utils.LoaderScheduler;
 import com.firekernel.musicplayer.utils.MediaIDHelper;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Locale;
 
 
 
 public class SearchResultProvider {
     public static final String SEARCH_LIMIT = "limit";
     private static final String TAG = FireLog.makeLogTag(SearchResultProvider.class);
-    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    // keystrokes closer together than this only search for the last query
+    private static final long DEBOUNCE_MILLIS = 150;
+    // MediaStore rows read per section, ranked down to the limit
+    private static final int CANDIDATE_FACTOR = 4;
+    // completed searches of every provider, so going back to search is served from memory
+    private static final SearchCache<SectionResult[]> SEARCH_CACHE = new SearchCache<>();
+    private final LoaderScheduler scheduler = LoaderScheduler.getInstance();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<LoaderScheduler.Task<SectionResult>> searchTasks = new ArrayList<>();
     private int limit = 10;
-    private AsyncTask asyncTask;
-    private ArrayList<MediaItemWrapper> results = new ArrayList<>();
+    private CancellationSignal cancellationSignal;
+    // last completed search, a query extending it may be answered by filtering its rows
+    private SearchResult lastResult;
     private LocalSource source;
+    private MusicProvider musicProvider = MusicProvider.getInstance();
     private String query;
     private Bundle bundle;
     private SearchCallback searchCallback;
+    private final Runnable pendingSearch = new Runnable() {
+        @Override
+        public void run() {
+            searchAsync(query);
+        }
+    };
 
     public SearchResultProvider() {
         this(new LocalSource());
@@ -41,7 +62,27 @@ public class SearchResultProvider {
         this.source = source;
     }
 
+    /**
+     * Searches once no other query followed within {@link #DEBOUNCE_MILLIS}. The search
+     * running for an earlier query is cancelled right away, its results would be stale.
+     */
     public void search(@NonNull String query, Bundle bundle, @NonNull SearchCallback searchCallback) {
+        this.query = query;
+        this.bundle = bundle;
+        this.searchCallback = searchCallback;
+        if (bundle != null && bundle.containsKey(SEARCH_LIMIT)) {
+            limit = bundle.getInt(SEARCH_LIMIT, limit);
+        }
+        cancel();
+        handler.postDelayed(pendingSearch, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Searches right away, for a client that sends whole queries rather than keystrokes.
+     * The query is remembered as a recent search.
+     */
+    public void searchNow(@NonNull String query, Bundle bundle, @NonNull SearchCallback searchCallback) {
+        musicProvider.recordQuery(query);
         this.query = query;
         this.bundle = bundle;
         this.searchCallback = searchCallback;
@@ -51,104 +92,328 @@ public class SearchResultProvider {
         searchAsync(query);
     }
 
+    /**
+     * Searches right away, without waiting for further keystrokes. Every section is searched
+     * concurrently and the callback gets the sections found so far each time one is ready,
+     * always in the same order. A query searched before on the same catalog version is
+     * answered from the cache, right away.
+     */
     public void searchAsync(final @NonNull String query) {
         FireLog.d(TAG, "(++) searchAsync");
-        if (asyncTask != null) {
-            asyncTask.cancel(false);
-            asyncTask = null;
-        }
-        asyncTask = new AsyncTask<Void, Void, Boolean>() {
-            @Override
-            protected Boolean doInBackground(Void... params) {
-                return retrieveMedia(query);
+        cancel();
+        final int limit = this.limit;
+        final Bundle bundle = this.bundle;
+        final SearchCallback searchCallback = this.searchCallback;
+        final int version = musicProvider.getCatalogVersion();
+        SectionResult[] cached = SEARCH_CACHE.get(query, limit, version);
+        if (cached != null) {
+            FireLog.d(TAG, "Search served from cache, query=" + query);
+            lastResult = new SearchResult(query, cached);
+            if (searchCallback != null) {
+                searchCallback.onSearchResult(query, bundle, lastResult.getItems());
+                searchCallback.onSearchComplete(query, bundle);
             }
+            return;
+        }
+        final CancellationSignal signal = new CancellationSignal();
+        final SearchResult previous = lastResult;
+        final SearchResult result = new SearchResult(query);
+        cancellationSignal = signal;
+        for (final Section section : Section.values()) {
+            searchTasks.add(scheduler.submit(LoaderScheduler.Lane.SEARCH, new LoaderScheduler.Job<SectionResult>() {
+                @Override
+                protected SectionResult call() {
+                    return retrieveSection(section, query, limit, previous, signal);
+                }
 
-            @Override
-            protected void onPostExecute(Boolean initialized) {
-                if (initialized && searchCallback != null) {
-                    searchCallback.onSearchResult(query, bundle, results);
+                @Override
+                protected void onResult(SectionResult rows) {
+                    result.put(section, rows);
+                    if (result.isComplete() && !result.hasFailed()) {
+                        lastResult = result;
+                        SEARCH_CACHE.put(query, limit, version, result.getSections());
+                    }
+                    if (searchCallback == null) {
+                        return;
+                    }
+                    if (result.isComplete() && result.hasFailedAll()) {
+                        searchCallback.onError(query, bundle);
+                        return;
+                    }
+                    if (result.isComplete() || result.hasItems()) {
+                        // an empty partial result would only blank the previous one
+                        searchCallback.onSearchResult(query, bundle, result.getItems());
+                    }
+                    if (result.isComplete()) {
+                        searchCallback.onSearchComplete(query, bundle);
+                    }
                 }
-            }
-        }.executeOnExecutor(executorService);
+            }));
+        }
+    }
+
+    /**
+     * Drops the pending search and stops the running one, including its MediaStore queries.
+     */
+    public void cancel() {
+        handler.removeCallbacks(pendingSearch);
+        if (cancellationSignal != null) {
+            cancellationSignal.cancel();
+            cancellationSignal = null;
+        }
+        // a newer query makes the running one useless, drop it even if it already started
+        for (LoaderScheduler.Task<SectionResult> task : searchTasks) {
+            task.cancel();
+        }
+        searchTasks.clear();
     }
 
-    private synchronized boolean retrieveMedia(@NonNull String query) {
-        boolean initialized = false;
-        results.clear();
+    /**
+     * Tracks, albums and artists come from the catalog's index once it is loaded; playlists,
+     * and everything while there is no catalog, from MediaStore, ranked the same way.
+     *
+     * @return rows of one section, or null if the search failed or was cancelled
+     */
+    private SectionResult retrieveSection(Section section, @NonNull String query, int limit,
+                                          SearchResult previous, CancellationSignal signal) {
         try {
-            Iterator<MediaMetadataCompat> iterator = source.searchTracks(query, limit).iterator();
-            if (iterator.hasNext()) {
-                results.add(new MediaItemWrapper(FireApplication.getInstance().getResources().getString(R.string.nav_menu_tracks)));
-                while (iterator.hasNext()) {
-                    MediaMetadataCompat metadata = iterator.next();
-                    String category = MediaIDHelper.MEDIA_ID_TRACKS;
-                    String subCategory = MediaIDHelper.MEDIA_ID_TRACKS_ALL;
-                    results.add(new MediaItemWrapper(Category.TRACK,
-                            createPlayableMediaItem(category, subCategory, metadata)));
+            SearchIndex index = section == Section.PLAYLISTS ? null : musicProvider.getSearchIndex();
+            if (index != null) {
+                switch (section) {
+                    case TRACKS:
+                        return new SectionResult(index.searchTracks(query, limit), null, 0);
+                    case ALBUMS:
+                        return new SectionResult(index.searchAlbums(query, limit), null, 0);
+                    default:
+                        return new SectionResult(index.searchArtists(query, limit), null, 0);
                 }
             }
 
-            iterator = source.searchAlbums(query, limit).iterator();
-            if (iterator.hasNext()) {
-                results.add(new MediaItemWrapper(FireApplication.getInstance().getResources().getString(R.string.nav_menu_albums)));
-                while (iterator.hasNext()) {
-                    MediaMetadataCompat metadata = iterator.next();
-                    String category = MediaIDHelper.MEDIA_ID_ALBUM;
-                    String subCategory = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-                    results.add(new MediaItemWrapper(Category.ALBUM,
-                            createBrowsableMediaItemForSubCategory(category, subCategory, metadata)));
+            int candidateLimit = limit * CANDIDATE_FACTOR;
+            SectionResult last = previous == null ? null : previous.get(section);
+            List<MediaMetadataCompat> candidates;
+            if (last != null && last.canRefine(previous.query, query, candidateLimit)) {
+                candidates = last.refine(query);
+            } else {
+                switch (section) {
+                    case TRACKS:
+                        candidates = source.searchTracks(query, candidateLimit, signal);
+                        break;
+                    case ALBUMS:
+                        candidates = source.searchAlbums(query, candidateLimit, signal);
+                        break;
+                    case ARTISTS:
+                        candidates = source.searchArtists(query, candidateLimit, signal);
+                        break;
+                    default:
+                        candidates = source.searchPlaylists(query, candidateLimit, signal);
+                        break;
                 }
             }
+            return new SectionResult(SearchIndex.rank(query, candidates, limit), candidates,
+                    candidateLimit);
+        } catch (OperationCanceledException e) {
+            return null;
+        } catch (Exception e) {
+            FireLog.e(TAG, "Media Initialization failed, section=" + section, e);
+            return null;
+        }
+    }
 
-            iterator = source.searchArtists(query, limit).iterator();
-            if (iterator.hasNext()) {
-                results.add(new MediaItemWrapper(FireApplication.getInstance().getString(R.string.nav_menu_artists)));
-                while (iterator.hasNext()) {
-                    MediaMetadataCompat metadata = iterator.next();
-                    String category = MediaIDHelper.MEDIA_ID_ARTIST;
-                    String subCategory = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-                    results.add(new MediaItemWrapper(Category.ARTIST,
-                            createBrowsableMediaItemForSubCategory(category, subCategory, metadata)));
-                }
-            }
-            if (results.size() == 0) {
-                results.add(new MediaItemWrapper(FireApplication.getInstance().getResources().getString(R.string.nothing_found)));
+    private void addItems(List<MediaItemWrapper> results, Section section,
+                          List<MediaMetadataCompat> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        results.add(new MediaItemWrapper(FireApplication.getInstance().getResources().getString(section.titleRes)));
+        // index hits on tracks are a view on the catalog, described from its columns
+        MusicCatalog.ChildList children = rows instanceof MusicCatalog.ChildList
+                ? (MusicCatalog.ChildList) rows : null;
+        for (int i = 0; i < rows.size(); i++) {
+            MediaMetadataCompat metadata = children == null ? rows.get(i) : null;
+            String childId = children != null ? children.getChildId(i)
+                    : metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+            String hierarchyAwareMediaID;
+            int flags;
+            if (section == Section.TRACKS) {
+                hierarchyAwareMediaID = MediaIDHelper.createMediaID(childId,
+                        MediaIDHelper.MEDIA_ID_TRACKS, MediaIDHelper.MEDIA_ID_TRACKS_ALL);
+                flags = MediaBrowserCompat.MediaItem.FLAG_PLAYABLE;
+            } else {
+                hierarchyAwareMediaID = MediaIDHelper.createMediaID(null, section.mediaId, childId);
+                flags = MediaBrowserCompat.MediaItem.FLAG_BROWSABLE;
             }
-            initialized = true;
-        } catch (Exception e) {
-            FireLog.e(TAG, "Media Initialization failed", e);
+            MediaDescriptionCompat description = children != null
+                    ? children.getDescription(i, hierarchyAwareMediaID)
+                    : DescriptionFactory.create(hierarchyAwareMediaID, metadata);
+            results.add(new MediaItemWrapper(section.category,
+                    new MediaBrowserCompat.MediaItem(description, flags)));
         }
-        return initialized;
     }
 
-    private MediaBrowserCompat.MediaItem createBrowsableMediaItemForSubCategory(String category,
-                                                                                String subCategory,
-                                                                                MediaMetadataCompat metadata) {
-        String hierarchyAwareMediaID = MediaIDHelper.createMediaID(null, category, subCategory);
-        MediaMetadataCompat copy = new MediaMetadataCompat.Builder(metadata)
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
-                .build();
+    /**
+     * Result sections in the order they are listed.
+     */
+    private enum Section {
+        TRACKS(R.string.nav_menu_tracks, Category.TRACK, MediaIDHelper.MEDIA_ID_TRACKS),
+        ALBUMS(R.string.nav_menu_albums, Category.ALBUM, MediaIDHelper.MEDIA_ID_ALBUM),
+        ARTISTS(R.string.nav_menu_artists, Category.ARTIST, MediaIDHelper.MEDIA_ID_ARTIST),
+        PLAYLISTS(R.string.nav_menu_playlists, Category.PLAYLIST, MediaIDHelper.MEDIA_ID_PLAYLIST);
+
+        final int titleRes;
+        final int category;
+        final String mediaId;
+
+        Section(int titleRes, int category, String mediaId) {
+            this.titleRes = titleRes;
+            this.category = category;
+            this.mediaId = mediaId;
+        }
+    }
+
+    /**
+     * Rows of one section. Never changed once built.
+     */
+    private static class SectionResult {
+        final List<MediaMetadataCompat> rows;
+        // every MediaStore LIKE match read, null for index results, which aren't LIKE matches
+        final List<MediaMetadataCompat> candidates;
+        final int candidateLimit;
+
+        SectionResult(List<MediaMetadataCompat> rows, List<MediaMetadataCompat> candidates,
+                      int candidateLimit) {
+            // catalog views are read only already and have to stay ChildLists
+            this.rows = rows instanceof MusicCatalog.ChildList ? rows : Collections.unmodifiableList(rows);
+            this.candidates = candidates == null ? null : Collections.unmodifiableList(candidates);
+            this.candidateLimit = candidateLimit;
+        }
+
+        /**
+         * Every LIKE match of a query extending the previous one is a match of the previous
+         * one, so candidates that weren't cut off by the limit hold all of them.
+         */
+        boolean canRefine(String previous, String next, int candidateLimit) {
+            return candidates != null && this.candidateLimit == candidateLimit
+                    && candidates.size() < candidateLimit
+                    && next.toLowerCase(Locale.getDefault()).startsWith(previous.toLowerCase(Locale.getDefault()));
+        }
 
-        return new MediaBrowserCompat.MediaItem(copy.getDescription(),
-                MediaBrowserCompat.MediaItem.FLAG_BROWSABLE);
+        List<MediaMetadataCompat> refine(String next) {
+            String needle = next.toLowerCase(Locale.getDefault());
+            List<MediaMetadataCompat> refined = new ArrayList<>();
+            for (MediaMetadataCompat row : candidates) {
+                String title = row.getString(MediaMetadataCompat.METADATA_KEY_TITLE);
+                if (title != null && title.toLowerCase(Locale.getDefault()).contains(needle)) {
+                    refined.add(row);
+                }
+            }
+            return refined;
+        }
     }
 
-    private MediaBrowserCompat.MediaItem createPlayableMediaItem(String category, String subCategory,
-                                                                 MediaMetadataCompat metadata) {
-        String musicId = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-        String hierarchyAwareMediaID = MediaIDHelper.createMediaID(musicId, category, subCategory);
-        MediaMetadataCompat copy = new MediaMetadataCompat.Builder(metadata)
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
-                .build();
+    /**
+     * Sections of one search as they complete, filled on the main thread. Every callback gets
+     * its own unmodifiable list of items.
+     */
+    private class SearchResult {
+        final String query;
+        private final SectionResult[] sections = new SectionResult[Section.values().length];
+        private final boolean[] done = new boolean[Section.values().length];
+
+        SearchResult(String query) {
+            this.query = query;
+        }
+
+        /**
+         * A complete result, of sections found before.
+         */
+        SearchResult(String query, SectionResult[] sections) {
+            this.query = query;
+            System.arraycopy(sections, 0, this.sections, 0, sections.length);
+            Arrays.fill(done, true);
+        }
+
+        /**
+         * @return a copy of the sections, null for those that failed or aren't done
+         */
+        SectionResult[] getSections() {
+            return sections.clone();
+        }
+
+        /**
+         * @param rows null if the section failed
+         */
+        void put(Section section, SectionResult rows) {
+            sections[section.ordinal()] = rows;
+            done[section.ordinal()] = true;
+        }
+
+        SectionResult get(Section section) {
+            return sections[section.ordinal()];
+        }
+
+        boolean isComplete() {
+            for (boolean sectionDone : done) {
+                if (!sectionDone) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean hasFailed() {
+            for (int i = 0; i < done.length; i++) {
+                if (done[i] && sections[i] == null) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
-        return new MediaBrowserCompat.MediaItem(copy.getDescription(),
-                MediaBrowserCompat.MediaItem.FLAG_PLAYABLE);
+        boolean hasFailedAll() {
+            for (SectionResult section : sections) {
+                if (section != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
 
+        boolean hasItems() {
+            for (SectionResult section : sections) {
+                if (section != null && !section.rows.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<MediaItemWrapper> getItems() {
+            List<MediaItemWrapper> results = new ArrayList<>();
+            for (Section section : Section.values()) {
+                SectionResult rows = sections[section.ordinal()];
+                if (rows != null) {
+                    addItems(results, section, rows.rows);
+                }
+            }
+            if (results.isEmpty() && isComplete()) {
+                results.add(new MediaItemWrapper(FireApplication.getInstance().getResources().getString(R.string.nothing_found)));
+            }
+            return Collections.unmodifiableList(results);
+        }
     }
 
     public interface SearchCallback {
+        /**
+         * Called each time a section is ready, with every section found so far.
+         */
         void onSearchResult(@NonNull String query, Bundle bundle, @NonNull List<MediaItemWrapper> items);
 
+        /**
+         * Called once all sections are done, after the last {@link #onSearchResult}.
+         */
+        void onSearchComplete(@NonNull String query, Bundle bundle);
+
         void onError(@NonNull String query, Bundle bundle);
     }
 
@@ -0,0 +1,149 @@
+package com.firekernel.musicplayer.source;
+
+import android.app.SearchManager;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.firekernel.musicplayer.utils.FireLog;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Search suggestions for the app's own search view, like a SearchRecentSuggestionsProvider
+ * but without its database: recent searches matching what was typed come first, then track,
+ * album and artist names from the in-memory {@link SearchIndex}. Never touches MediaStore;
+ * before the index is built only recent searches are suggested.
+ * <p>
+ * Not exported and not included in global search: the SearchView queries it from the app's
+ * process, nothing outside the app can.
+ */
+public class SearchSuggestionProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.firekernel.musicplayer.suggestions";
+    private static final String TAG = FireLog.makeLogTag(SearchSuggestionProvider.class);
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_RECENT = 5;
+    private static final String[] COLUMNS = {BaseColumns._ID, SearchManager.SUGGEST_COLUMN_TEXT_1,
+            SearchManager.SUGGEST_COLUMN_TEXT_2, SearchManager.SUGGEST_COLUMN_QUERY};
+
+    @Override
+    public boolean onCreate() {
+        // runs before the application is created, the music provider is only used per query
+        return true;
+    }
+
+    /**
+     * The typed text is the selection argument, or the last path segment when the searchable
+     * doesn't declare a selection.
+     */
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        String typed;
+        if (selectionArgs != null && selectionArgs.length > 0) {
+            typed = selectionArgs[0];
+        } else {
+            typed = uri.getLastPathSegment();
+            if (SearchManager.SUGGEST_URI_PATH_QUERY.equals(typed)) {
+                typed = "";
+            }
+        }
+        int limit = DEFAULT_LIMIT;
+        String limitParameter = uri.getQueryParameter(SearchManager.SUGGEST_PARAMETER_LIMIT);
+        if (limitParameter != null) {
+            try {
+                limit = Integer.parseInt(limitParameter);
+            } catch (NumberFormatException e) {
+                FireLog.w(TAG, "Invalid limit: " + limitParameter);
+            }
+        }
+        FireLog.d(TAG, "(++) query, typed=" + typed + ", limit=" + limit);
+        return getSuggestions(typed == null ? "" : typed, limit);
+    }
+
+    private Cursor getSuggestions(String typed, int limit) {
+        MusicProvider musicProvider = MusicProvider.getInstance();
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        Suggestions suggestions = new Suggestions(cursor, limit);
+        String key = SearchIndex.normalize(typed);
+
+        int recent = 0;
+        for (String query : musicProvider.getRecentQueries()) {
+            if (recent == MAX_RECENT) {
+                break;
+            }
+            if (SearchIndex.normalize(query).startsWith(key) && suggestions.add(query, null)) {
+                recent++;
+            }
+        }
+
+        SearchIndex index = musicProvider.peekSearchIndex();
+        if (index != null && !key.isEmpty()) {
+            for (MediaMetadataCompat track : index.searchTracks(typed, limit)) {
+                suggestions.add(track.getString(MediaMetadataCompat.METADATA_KEY_TITLE),
+                        track.getString(MediaMetadataCompat.METADATA_KEY_ARTIST));
+            }
+            for (MediaMetadataCompat album : index.searchAlbums(typed, limit)) {
+                suggestions.add(album.getString(MediaMetadataCompat.METADATA_KEY_TITLE),
+                        album.getString(MediaMetadataCompat.METADATA_KEY_ARTIST));
+            }
+            for (MediaMetadataCompat artist : index.searchArtists(typed, limit)) {
+                suggestions.add(artist.getString(MediaMetadataCompat.METADATA_KEY_TITLE), null);
+            }
+        }
+        return cursor;
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return SearchManager.SUGGEST_MIME_TYPE;
+    }
+
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Suggestions are read only");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Suggestions are read only");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        throw new UnsupportedOperationException("Suggestions are read only");
+    }
+
+    /**
+     * Rows of the cursor, each text suggested once however many tracks, albums or artists
+     * share it, up to the limit.
+     */
+    private static class Suggestions {
+        private final MatrixCursor cursor;
+        private final int limit;
+        private final Set<String> keys = new HashSet<>();
+
+        Suggestions(MatrixCursor cursor, int limit) {
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+
+        /**
+         * @return true if the row was added
+         */
+        boolean add(String text, String detail) {
+            if (text == null || keys.size() >= limit || !keys.add(SearchIndex.normalize(text))) {
+                return false;
+            }
+            cursor.addRow(new Object[]{keys.size(), text, detail, text});
+            return true;
+        }
+    }
+}
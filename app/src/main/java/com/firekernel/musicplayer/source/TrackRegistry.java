@@ -0,0 +1,59 @@
+package com.firekernel.musicplayer.source;
+
+import android.support.v4.media.MediaMetadataCompat;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Deduplicated set of playable tracks that aren't part of the {@link MusicCatalog}, keyed by
+ * musicId.
+ * Reads go against an immutable map and take no lock; writers build a new map and swap it
+ * in, so a reader always sees either the old or the new set, never a half updated one.
+ */
+class TrackRegistry {
+    private final Object writeLock = new Object();
+    private volatile Map<String, MediaMetadataCompat> tracks =
+            Collections.<String, MediaMetadataCompat>emptyMap();
+
+    private static String getMusicId(MediaMetadataCompat track) {
+        return track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+    }
+
+    MediaMetadataCompat get(String musicId) {
+        return tracks.get(musicId);
+    }
+
+    /**
+     * Adds only tracks not known yet, so the first version seen of a track is kept.
+     */
+    void putAllAbsent(Iterable<MediaMetadataCompat> added) {
+        synchronized (writeLock) {
+            Map<String, MediaMetadataCompat> current = tracks;
+            Map<String, MediaMetadataCompat> next = null;
+            for (MediaMetadataCompat track : added) {
+                String musicId = getMusicId(track);
+                if (!current.containsKey(musicId)) {
+                    if (next == null) {
+                        next = new HashMap<>(current);
+                    }
+                    next.put(musicId, track);
+                }
+            }
+            if (next != null) {
+                tracks = Collections.unmodifiableMap(next);
+            }
+        }
+    }
+
+    void removeAll(Iterable<String> musicIds) {
+        synchronized (writeLock) {
+            Map<String, MediaMetadataCompat> next = new HashMap<>(tracks);
+            for (String musicId : musicIds) {
+                next.remove(musicId);
+            }
+            tracks = Collections.unmodifiableMap(next);
+        }
+    }
+}
@@ -213,7 +213,19 @@ public class MainActivity extends PlaybackBaseActivity implements
     @Override
     public void onMediaItemSelected(MediaBrowserCompat.MediaItem item) {
         FireLog.d(TAG, "(++) onMediaItemSelected, mediaitem=" + item);
-        if (item.isPlayable()) {
+        if (item.isBrowsable()) {
+            // e.g. a sub folder, opened on top of its parent folder
+            title = item.getDescription().getTitle() + "";
+            Fragment fragment = MediaListFragment.newInstance(title, item.getMediaId());
+            getSupportFragmentManager()
+                    .beginTransaction()
+                    .setCustomAnimations(
+                            R.anim.slide_in_from_right, R.anim.slide_out_to_left,
+                            R.anim.slide_in_from_left, R.anim.slide_out_to_right)
+                    .replace(R.id.flContent, fragment, MediaListFragment.TAG)
+                    .addToBackStack(null)
+                    .commit();
+        } else if (item.isPlayable()) {
             MediaControllerCompat.getMediaController(this).getTransportControls()
                     .playFromMediaId(item.getMediaId(), null);
         }
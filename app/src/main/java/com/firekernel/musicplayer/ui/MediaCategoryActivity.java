@@ -117,6 +117,17 @@ public class MediaCategoryActivity extends PlaybackBaseActivity implements
 
     @Override
     public void onMediaItemSelected(MediaBrowserCompat.MediaItem item) {
+        if (item.isBrowsable()) {
+            // e.g. a sub folder, browsed in place so back returns to its parent
+            Fragment fragment = MediaListFragment.newInstance(item.getDescription().getTitle() + "",
+                    item.getMediaId());
+            getSupportFragmentManager()
+                    .beginTransaction()
+                    .replace(R.id.flContent, fragment, MediaListFragment.TAG)
+                    .addToBackStack(null)
+                    .commit();
+            return;
+        }
         onPlaySelected(item);
     }
 
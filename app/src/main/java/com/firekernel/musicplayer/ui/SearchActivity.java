@@ -1,6 +1,8 @@
 package com.firekernel.musicplayer.ui;
 
+import android.app.SearchManager;
 import android.content.ComponentName;
+import android.content.Intent;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.support.annotation.NonNull;
@@ -81,6 +83,20 @@ public class SearchActivity extends BaseActivity implements MediaBrowserProvider
                 .commit();
     }
 
+    /**
+     * A search submitted from outside the search view, e.g. by the system search UI.
+     */
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        if (Intent.ACTION_SEARCH.equals(intent.getAction())) {
+            Fragment fragment = getSupportFragmentManager().findFragmentByTag(SearchFragment.TAG);
+            if (fragment != null) {
+                ((SearchFragment) fragment).submitQuery(intent.getStringExtra(SearchManager.QUERY));
+            }
+        }
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
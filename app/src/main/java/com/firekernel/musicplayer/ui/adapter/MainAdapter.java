@@ -48,6 +48,7 @@ public class MainAdapter extends RecyclerView.Adapter<MainAdapter.MyViewHolder>
     public void onBindViewHolder(MyViewHolder holder, int position) {
         MediaBrowserCompat.MediaItem mediaItem = mediaItems.get(position);
         holder.title.setText(mediaItem.getDescription().getTitle());
+        holder.detail.setText(mediaItem.getDescription().getSubtitle());
         ImageHelper.loadArt(context, holder.image, mediaItem.getDescription());
     }
 
@@ -59,11 +60,13 @@ public class MainAdapter extends RecyclerView.Adapter<MainAdapter.MyViewHolder>
 
     class MyViewHolder extends RecyclerView.ViewHolder {
         TextView title;
+        TextView detail;
         ImageView image;
 
         MyViewHolder(View view) {
             super(view);
             title = (TextView) view.findViewById(R.id.title);
+            detail = (TextView) view.findViewById(R.id.detail);
             image = (ImageView) view.findViewById(R.id.image);
         }
     }
@@ -57,6 +57,8 @@ public class SearchAdapter extends RecyclerView.Adapter<SearchAdapter.MyViewHold
             return Category.ALBUM;
         if (mediaItemWrappers.get(position).getCategory() == Category.ARTIST)
             return Category.ARTIST;
+        if (mediaItemWrappers.get(position).getCategory() == Category.PLAYLIST)
+            return Category.PLAYLIST;
         return Category.NONE;
     }
 
@@ -66,6 +68,7 @@ public class SearchAdapter extends RecyclerView.Adapter<SearchAdapter.MyViewHold
             case Category.TRACK:
             case Category.ALBUM:
             case Category.ARTIST:
+            case Category.PLAYLIST:
             default:
                 View itemView = LayoutInflater.from(parent.getContext())
                         .inflate(R.layout.list_row, parent, false);
@@ -98,6 +101,7 @@ public class SearchAdapter extends RecyclerView.Adapter<SearchAdapter.MyViewHold
                 ImageHelper.loadArt(context, myViewHolder.albumArt, mediaItem.getDescription());
                 break;
             case Category.ARTIST:
+            case Category.PLAYLIST:
                 myViewHolder.title.setText(mediaItem.getDescription().getTitle());
                 myViewHolder.popupMenuBtn.setVisibility(View.GONE);
                 setOnItemClickListener(myViewHolder, mediaItemWrapper);
@@ -3,7 +3,6 @@ package com.firekernel.musicplayer.ui.fragment;
 
 import android.content.Context;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.media.MediaBrowserCompat;
 import android.support.v7.widget.DefaultItemAnimator;
@@ -32,25 +31,23 @@ public class CategoryFragment extends BaseFragment {
     private static final String MEDIA_ID = "media_id";
     private RecyclerView recyclerView;
     private MainAdapter adapter;
-    private final MediaBrowserCompat.SubscriptionCallback mSubscriptionCallback =
-            new MediaBrowserCompat.SubscriptionCallback() {
-                @Override
-                public void onChildrenLoaded(@NonNull String parentId,
-                                             @NonNull List<MediaBrowserCompat.MediaItem> children) {
-                    try {
-                        FireLog.d(TAG, "(++) onChildrenLoaded, parentId=" + parentId + "  count=" + children.size());
-                        adapter.refreshData(children);
-                    } catch (Throwable t) {
-                        FireLog.e(TAG, "Error on childrenloaded", t);
-                    }
-                }
-
-                @Override
-                public void onError(@NonNull String id) {
-                    FireLog.e(TAG, "(++) onError, id=" + id);
-                    Toast.makeText(getActivity(), R.string.error_loading_media, Toast.LENGTH_LONG).show();
-                }
-            };
+    private final PagedSubscription pagedSubscription = new PagedSubscription(new PagedSubscription.Listener() {
+        @Override
+        public void onChildrenLoaded(String parentId, List<MediaBrowserCompat.MediaItem> children) {
+            try {
+                FireLog.d(TAG, "(++) onChildrenLoaded, parentId=" + parentId + "  count=" + children.size());
+                adapter.refreshData(children);
+            } catch (Throwable t) {
+                FireLog.e(TAG, "Error on childrenloaded", t);
+            }
+        }
+
+        @Override
+        public void onError(String id) {
+            FireLog.e(TAG, "(++) onError, id=" + id);
+            Toast.makeText(getActivity(), R.string.error_loading_media, Toast.LENGTH_LONG).show();
+        }
+    });
     private String title;
     private String mediaId;
     private MediaBrowserProvider mediaBrowserProvider;
@@ -111,6 +108,7 @@ public class CategoryFragment extends BaseFragment {
         recyclerView.setLayoutManager(new GridLayoutManager(getActivity().getApplicationContext(), 3));
         recyclerView.setItemAnimator(new DefaultItemAnimator());
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(pagedSubscription);
         recyclerView.addOnItemTouchListener(new FireRecyclerItemClickListener(getActivity(),
                 recyclerView, new FireRecyclerItemClickListener.OnItemClickListener() {
             @Override
@@ -152,10 +150,7 @@ public class CategoryFragment extends BaseFragment {
     public void onStop() {
         super.onStop();
         FireLog.d(TAG, "(++) onStop");
-        MediaBrowserCompat mediaBrowser = mediaBrowserProvider.getMediaBrowser();
-        if (mediaBrowser != null && mediaBrowser.isConnected() && mediaId != null) {
-            mediaBrowser.unsubscribe(mediaId);
-        }
+        pagedSubscription.stop();
     }
 
     @Override
@@ -173,8 +168,7 @@ public class CategoryFragment extends BaseFragment {
         if (mediaId == null) {
             mediaId = mediaBrowserProvider.getMediaBrowser().getRoot();
         }
-        mediaBrowserProvider.getMediaBrowser().unsubscribe(mediaId);
-        mediaBrowserProvider.getMediaBrowser().subscribe(mediaId, mSubscriptionCallback);
+        pagedSubscription.start(mediaBrowserProvider.getMediaBrowser(), mediaId);
     }
 
 
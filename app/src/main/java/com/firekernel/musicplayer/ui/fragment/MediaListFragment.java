@@ -2,7 +2,6 @@ package com.firekernel.musicplayer.ui.fragment;
 
 import android.content.Context;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.media.MediaBrowserCompat;
@@ -30,10 +29,9 @@ public class MediaListFragment extends Fragment {
     private static final String EXTRA_MEDIA_ID = "media_id";
 
     private MediaListAdapter adapter;
-    private final MediaBrowserCompat.SubscriptionCallback subscriptionCallback = new MediaBrowserCompat.SubscriptionCallback() {
+    private final PagedSubscription pagedSubscription = new PagedSubscription(new PagedSubscription.Listener() {
         @Override
-        public void onChildrenLoaded(@NonNull String parentId,
-                                     @NonNull List<MediaBrowserCompat.MediaItem> children) {
+        public void onChildrenLoaded(String parentId, List<MediaBrowserCompat.MediaItem> children) {
             try {
                 FireLog.d(TAG, "(++) onChildrenLoaded, parentId=" + parentId + "  count=" + children.size());
                 loadView(children);
@@ -43,11 +41,11 @@ public class MediaListFragment extends Fragment {
         }
 
         @Override
-        public void onError(@NonNull String id) {
+        public void onError(String id) {
             FireLog.e(TAG, "(++) onError, id=" + id);
             Toast.makeText(getActivity(), R.string.error_loading_media, Toast.LENGTH_LONG).show();
         }
-    };
+    });
     private List<MediaBrowserCompat.MediaItem> mediaItems = new ArrayList<>();
     private MediaBrowserProvider mediaBrowserProvider;
     private String title;
@@ -99,6 +97,7 @@ public class MediaListFragment extends Fragment {
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext().getApplicationContext()));
         recyclerView.setItemAnimator(new DefaultItemAnimator());
         recyclerView.setAdapter(adapter);
+        recyclerView.addOnScrollListener(pagedSubscription);
         getActivity().setTitle(title);
         return view;
     }
@@ -126,10 +125,7 @@ public class MediaListFragment extends Fragment {
     public void onStop() {
         super.onStop();
         FireLog.d(TAG, "(++) onStop");
-        MediaBrowserCompat mediaBrowser = mediaBrowserProvider.getMediaBrowser();
-        if (mediaBrowser != null && mediaBrowser.isConnected() && mediaId != null) {
-            mediaBrowser.unsubscribe(mediaId);
-        }
+        pagedSubscription.stop();
     }
 
     @Override
@@ -149,18 +145,8 @@ public class MediaListFragment extends Fragment {
             mediaId = mediaBrowserProvider.getMediaBrowser().getRoot();
         }
 
-        // Unsubscribing before subscribing is required if this mediaId already has a subscriber
-        // on this MediaBrowser instance. Subscribing to an already subscribed mediaId will replace
-        // the callback, but won't trigger the initial callback.onChildrenLoaded.
-        //
-        // This is temporary: A bug is being fixed that will make subscribe
-        // consistently call onChildrenLoaded initially, no matter if it is replacing an existing
-        // subscriber or not. Currently this only happens if the mediaID has no previous
-        // subscriber or if the media content changes on the service side, so we need to
-        // unsubscribe first.
-        mediaBrowserProvider.getMediaBrowser().unsubscribe(mediaId);
-
-        mediaBrowserProvider.getMediaBrowser().subscribe(mediaId, subscriptionCallback);
+        // Children are requested page by page as the list is scrolled
+        pagedSubscription.start(mediaBrowserProvider.getMediaBrowser(), mediaId);
     }
 
     private void loadView(List<MediaBrowserCompat.MediaItem> mediaItems) {
@@ -0,0 +1,147 @@
+package com.firekernel.musicplayer.ui.fragment;
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+
+import com.firekernel.musicplayer.utils.FireLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Subscribes to a media id one page at a time, using {@link MediaBrowserCompat#EXTRA_PAGE}
+ * and {@link MediaBrowserCompat#EXTRA_PAGE_SIZE}. The first page is requested on
+ * {@link #start}, the following ones when the attached RecyclerView scrolls close to the end
+ * of what has been loaded so far.
+ */
+class PagedSubscription extends RecyclerView.OnScrollListener {
+    private static final String TAG = FireLog.makeLogTag(PagedSubscription.class);
+    // multiple of the category grid's span count, so pages always fill complete rows
+    static final int PAGE_SIZE = 60;
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    private final SparseArray<List<MediaBrowserCompat.MediaItem>> pages = new SparseArray<>();
+    private final Listener listener;
+    private MediaBrowserCompat mediaBrowser;
+    private String mediaId;
+    private int requestedPages;
+    private int loadedCount;
+    private boolean endReached;
+
+    private final MediaBrowserCompat.SubscriptionCallback subscriptionCallback =
+            new MediaBrowserCompat.SubscriptionCallback() {
+                @Override
+                public void onChildrenLoaded(@NonNull String parentId,
+                                             @NonNull List<MediaBrowserCompat.MediaItem> children,
+                                             @NonNull Bundle options) {
+                    int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, 0);
+                    FireLog.d(TAG, "(++) onChildrenLoaded, parentId=" + parentId + ", page=" + page
+                            + ", count=" + children.size());
+                    if (!parentId.equals(mediaId)) {
+                        return;
+                    }
+                    pages.put(page, children);
+                    listener.onChildrenLoaded(parentId, mergePages());
+                }
+
+                @Override
+                public void onError(@NonNull String parentId, @NonNull Bundle options) {
+                    FireLog.e(TAG, "(++) onError, parentId=" + parentId + ", options=" + options);
+                    int page = options.getInt(MediaBrowserCompat.EXTRA_PAGE, 0);
+                    // the failed page no longer counts as pending, scrolling requests it again
+                    if (parentId.equals(mediaId) && page == requestedPages - 1 && pages.get(page) == null) {
+                        requestedPages = page;
+                    }
+                    listener.onError(parentId);
+                }
+            };
+
+    PagedSubscription(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Drops any previously loaded pages and subscribes to the first page of mediaId.
+     */
+    void start(MediaBrowserCompat mediaBrowser, String mediaId) {
+        FireLog.d(TAG, "(++) start, mediaId=" + mediaId);
+        this.mediaBrowser = mediaBrowser;
+        this.mediaId = mediaId;
+        pages.clear();
+        requestedPages = 0;
+        loadedCount = 0;
+        endReached = false;
+
+        // Unsubscribing before subscribing is required if this mediaId already has a subscriber
+        // on this MediaBrowser instance, otherwise the initial onChildrenLoaded is not delivered.
+        mediaBrowser.unsubscribe(mediaId);
+        requestNextPage();
+    }
+
+    /**
+     * Unsubscribes from all pages of the current media id.
+     */
+    void stop() {
+        FireLog.d(TAG, "(++) stop, mediaId=" + mediaId);
+        if (mediaBrowser != null && mediaBrowser.isConnected() && mediaId != null) {
+            mediaBrowser.unsubscribe(mediaId);
+        }
+        mediaBrowser = null;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy <= 0 || endReached || mediaBrowser == null || requestedPages > pages.size()) {
+            return;
+        }
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (!(layoutManager instanceof LinearLayoutManager)) {
+            return;
+        }
+        int lastVisible = ((LinearLayoutManager) layoutManager).findLastVisibleItemPosition();
+        if (lastVisible >= loadedCount - PREFETCH_DISTANCE) {
+            requestNextPage();
+        }
+    }
+
+    private void requestNextPage() {
+        Bundle options = new Bundle();
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE, requestedPages);
+        options.putInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, PAGE_SIZE);
+        FireLog.d(TAG, "(++) requestNextPage, mediaId=" + mediaId + ", page=" + requestedPages);
+        requestedPages++;
+        mediaBrowser.subscribe(mediaId, options, subscriptionCallback);
+    }
+
+    /**
+     * Concatenates the pages loaded so far, stopping at the first missing one so the list
+     * never has gaps. Pages may be redelivered when the service notifies a change.
+     */
+    private List<MediaBrowserCompat.MediaItem> mergePages() {
+        List<MediaBrowserCompat.MediaItem> items = new ArrayList<>();
+        endReached = false;
+        for (int page = 0; page < requestedPages; page++) {
+            List<MediaBrowserCompat.MediaItem> children = pages.get(page);
+            if (children == null) {
+                break;
+            }
+            items.addAll(children);
+            if (children.size() < PAGE_SIZE) {
+                endReached = true;
+                break;
+            }
+        }
+        loadedCount = items.size();
+        return items;
+    }
+
+    interface Listener {
+        void onChildrenLoaded(String parentId, List<MediaBrowserCompat.MediaItem> children);
+
+        void onError(String parentId);
+    }
+}
@@ -1,6 +1,8 @@
 package com.firekernel.musicplayer.ui.fragment;
 
+import android.app.SearchManager;
 import android.content.Context;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.Fragment;
@@ -43,6 +45,11 @@ public class SearchFragment extends Fragment implements SearchView.OnQueryTextLi
                 searchAdapter.refreshData(items);
         }
 
+        @Override
+        public void onSearchComplete(@NonNull String query, Bundle bundle) {
+            FireLog.d(TAG, "(++) onSearchComplete: query=" + query);
+        }
+
         @Override
         public void onError(@NonNull String query, Bundle bundle) {
             FireLog.e(TAG, "(++) onError");
@@ -119,12 +126,39 @@ public class SearchFragment extends Fragment implements SearchView.OnQueryTextLi
         }
     }
 
+    @Override
+    public void onDestroy() {
+        FireLog.d(TAG, "(++) onDestroy");
+        searchResultProvider.cancel();
+        super.onDestroy();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         inflater.inflate(R.menu.menu_search, menu);
 
         searchView = (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
         searchView.setOnQueryTextListener(this);
+        // suggestions of SearchSuggestionProvider, declared by the activity's searchable
+        SearchManager searchManager = (SearchManager) getActivity().getSystemService(Context.SEARCH_SERVICE);
+        searchView.setSearchableInfo(searchManager.getSearchableInfo(getActivity().getComponentName()));
+        searchView.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                Cursor cursor = searchView.getSuggestionsAdapter().getCursor();
+                if (cursor == null || !cursor.moveToPosition(position)) {
+                    return false;
+                }
+                // submit here rather than sending a search intent to the activity
+                submitQuery(cursor.getString(cursor.getColumnIndex(SearchManager.SUGGEST_COLUMN_QUERY)));
+                return true;
+            }
+        });
         searchView.setQueryHint(getString(R.string.search));
         searchView.setIconifiedByDefault(false);
         searchView.setIconified(false);
@@ -161,7 +195,7 @@ public class SearchFragment extends Fragment implements SearchView.OnQueryTextLi
 
     @Override
     public boolean onQueryTextSubmit(final String query) {
-        searchResultProvider.search(query, null, searchCallback);
+        searchResultProvider.searchNow(query, null, searchCallback);
         hideInputManager();
         return true;
     }
@@ -182,6 +216,15 @@ public class SearchFragment extends Fragment implements SearchView.OnQueryTextLi
         return true;
     }
 
+    /**
+     * Shows the query in the search view and searches it right away.
+     */
+    public void submitQuery(String query) {
+        if (searchView != null) {
+            searchView.setQuery(query, true);
+        }
+    }
+
     @Override
     public boolean onTouch(View v, MotionEvent event) {
         hideInputManager();
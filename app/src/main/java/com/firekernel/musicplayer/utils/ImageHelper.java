@@ -8,7 +8,6 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.TransitionDrawable;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.support.annotation.NonNull;
 import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.util.LruCache;
@@ -141,8 +140,8 @@ public class ImageHelper {
         /*
          * if key not found in cache load blurred image async
          */
-        LoadBlurredImageTask blurredImageTask = new LoadBlurredImageTask(context, view, key);
-        blurredImageTask.execute(loadedImage);
+        LoaderScheduler.getInstance().submit(LoaderScheduler.Lane.IMAGE,
+                new LoadBlurredImageJob(context, view, key, loadedImage));
     }
 
     private static Bitmap getDefaultBgArt() {
@@ -186,22 +185,24 @@ public class ImageHelper {
         return blurTemplate;
     }
 
-    private static class LoadBlurredImageTask extends AsyncTask<Bitmap, Void, Bitmap> {
+    private static class LoadBlurredImageJob extends LoaderScheduler.Job<Bitmap> {
         private Context context;
         private ImageView imageView;
         private String key;
+        private Bitmap loadedImage;
 
-        LoadBlurredImageTask(Context context, ImageView imageView, String key) {
+        LoadBlurredImageJob(Context context, ImageView imageView, String key, Bitmap loadedImage) {
             this.context = context;
             this.imageView = imageView;
             this.key = key;
+            this.loadedImage = loadedImage;
         }
 
         @Override
-        protected Bitmap doInBackground(Bitmap... loadedImage) {
+        protected Bitmap call() {
             Bitmap drawable = null;
             try {
-                drawable = createBlurredBitmapFromBitmap(loadedImage[0], context, IN_SAMPLE_SIZE);
+                drawable = createBlurredBitmapFromBitmap(loadedImage, context, IN_SAMPLE_SIZE);
             } catch (Exception e) {
                 e.printStackTrace();
             }
@@ -209,7 +210,7 @@ public class ImageHelper {
         }
 
         @Override
-        protected void onPostExecute(Bitmap result) {
+        protected void onResult(Bitmap result) {
             if (context == null || ((Activity) context).isFinishing()
                     || ((Activity) context).isDestroyed()) {
                 return;
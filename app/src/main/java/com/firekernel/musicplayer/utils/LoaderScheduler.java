@@ -0,0 +1,320 @@
+package com.firekernel.musicplayer.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One pool for all background loading in the app, sized to the device's cores. Work is queued
+ * in priority lanes: a browse request a client waits for runs before search, search before
+ * prefetching and prefetching before image post-processing. Within a lane tasks run in the
+ * order they were submitted.
+ * <p>
+ * A submitted {@link Task} can be cancelled: it is taken off the queue if it hasn't started,
+ * otherwise its thread is interrupted and its result dropped. Queue depth and wait and run
+ * times are tracked per lane, see {@link #getStats(Lane)}.
+ */
+public class LoaderScheduler {
+    private static final String TAG = FireLog.makeLogTag(LoaderScheduler.class);
+    private static final int POOL_SIZE =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong sequence = new AtomicLong();
+    private final LaneCounters[] counters = new LaneCounters[Lane.values().length];
+
+    private LoaderScheduler() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LaneCounters();
+        }
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "Loader #" + count.incrementAndGet());
+            }
+        });
+        // with every worker running, execute() always queues, so even the first tasks are
+        // taken in lane order instead of being handed straight to a new thread
+        executor.prestartAllCoreThreads();
+    }
+
+    public static LoaderScheduler getInstance() {
+        return LazyHolder.INSTANCE;
+    }
+
+    /**
+     * Runs job in lane. Its result, or its error, is delivered on the main thread unless the
+     * task was cancelled first.
+     */
+    public <T> Task<T> submit(Lane lane, Job<T> job) {
+        Task<T> task = new Task<>(lane, job);
+        counters[lane.ordinal()].queued.incrementAndGet();
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Runs work in lane with nothing to deliver.
+     */
+    public Task<Void> submit(Lane lane, final Runnable work) {
+        return submit(lane, new Job<Void>() {
+            @Override
+            protected Void call() {
+                work.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * For jobs handing out partial results while they run.
+     */
+    public void runOnMainThread(Runnable runnable) {
+        mainHandler.post(runnable);
+    }
+
+    public Stats getStats(Lane lane) {
+        LaneCounters lc = counters[lane.ordinal()];
+        return new Stats(lane, lc.queued.get(), lc.running.get(), lc.completed.get(),
+                lc.cancelled.get(), lc.totalWaitMillis.get(), lc.maxWaitMillis.get(),
+                lc.totalRunMillis.get());
+    }
+
+    /**
+     * Priority lanes, most urgent first.
+     */
+    public enum Lane {
+        // a client is waiting for the children of a parent
+        BROWSE(Process.THREAD_PRIORITY_DEFAULT),
+        SEARCH(Process.THREAD_PRIORITY_DEFAULT),
+        // warm-up and sync, nobody waits for them
+        PREFETCH(Process.THREAD_PRIORITY_BACKGROUND),
+        IMAGE(Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final int threadPriority;
+
+        Lane(int threadPriority) {
+            this.threadPriority = threadPriority;
+        }
+    }
+
+    /**
+     * Work to run in the background, {@link #call()} on a pool thread and the callbacks on the
+     * main thread. Long running jobs should check {@link Thread#isInterrupted()} to stop early
+     * once cancelled.
+     */
+    public abstract static class Job<T> {
+
+        protected abstract T call() throws Exception;
+
+        protected void onResult(T result) {
+        }
+
+        protected void onError(Exception e) {
+            FireLog.e(TAG, "Job failed", e);
+        }
+    }
+
+    /**
+     * A job queued or running in a lane.
+     */
+    public final class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final Lane lane;
+        private final Job<T> job;
+        private final long order;
+        private final long submittedAt;
+        private final AtomicBoolean dequeued = new AtomicBoolean();
+
+        private Task(Lane lane, final Job<T> job) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return job.call();
+                }
+            });
+            this.lane = lane;
+            this.job = job;
+            this.order = sequence.getAndIncrement();
+            this.submittedAt = SystemClock.elapsedRealtime();
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * Drops the task from its queue, or interrupts it if it already runs. Its callbacks
+         * are not called any more.
+         *
+         * @return false if it had already finished
+         */
+        public boolean cancel() {
+            boolean cancelled = cancel(true);
+            if (cancelled) {
+                counters[lane.ordinal()].cancelled.incrementAndGet();
+                if (executor.remove(this)) {
+                    markDequeued();
+                }
+            }
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            markDequeued();
+            LaneCounters lc = counters[lane.ordinal()];
+            if (isCancelled()) {
+                return;
+            }
+            long startedAt = SystemClock.elapsedRealtime();
+            long wait = startedAt - submittedAt;
+            lc.totalWaitMillis.addAndGet(wait);
+            long max;
+            while (wait > (max = lc.maxWaitMillis.get()) && !lc.maxWaitMillis.compareAndSet(max, wait)) {
+                // retry until the larger wait is recorded
+            }
+            lc.running.incrementAndGet();
+            Process.setThreadPriority(lane.threadPriority);
+            try {
+                super.run();
+            } finally {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                // the interrupt of a cancelled task mustn't leak into the next one
+                Thread.interrupted();
+                lc.running.decrementAndGet();
+                lc.completed.incrementAndGet();
+                lc.totalRunMillis.addAndGet(SystemClock.elapsedRealtime() - startedAt);
+            }
+        }
+
+        private void markDequeued() {
+            if (dequeued.compareAndSet(false, true)) {
+                counters[lane.ordinal()].queued.decrementAndGet();
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                return;
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCancelled()) {
+                        return;
+                    }
+                    try {
+                        job.onResult(get());
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        job.onError(cause instanceof Exception ? (Exception) cause : e);
+                    } catch (InterruptedException | CancellationException e) {
+                        // cancelled in the meantime
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (lane != other.lane) {
+                return lane.ordinal() < other.lane.ordinal() ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+
+    /**
+     * Counters of one lane at the time they were read.
+     */
+    public static class Stats {
+        private final Lane lane;
+        private final int queued;
+        private final int running;
+        private final long completed;
+        private final long cancelled;
+        private final long totalWaitMillis;
+        private final long maxWaitMillis;
+        private final long totalRunMillis;
+
+        Stats(Lane lane, int queued, int running, long completed, long cancelled,
+              long totalWaitMillis, long maxWaitMillis, long totalRunMillis) {
+            this.lane = lane;
+            this.queued = queued;
+            this.running = running;
+            this.completed = completed;
+            this.cancelled = cancelled;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.totalRunMillis = totalRunMillis;
+        }
+
+        public int getQueueDepth() {
+            return queued;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getCancelled() {
+            return cancelled;
+        }
+
+        public long getAverageWaitMillis() {
+            return completed == 0 ? 0 : totalWaitMillis / completed;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        public long getAverageRunMillis() {
+            return completed == 0 ? 0 : totalRunMillis / completed;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{lane=" + lane + ", queued=" + queued + ", running=" + running
+                    + ", completed=" + completed + ", cancelled=" + cancelled
+                    + ", avgWait=" + getAverageWaitMillis() + "ms, maxWait=" + maxWaitMillis
+                    + "ms, avgRun=" + getAverageRunMillis() + "ms}";
+        }
+    }
+
+    private static class LaneCounters {
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong cancelled = new AtomicLong();
+        final AtomicLong totalWaitMillis = new AtomicLong();
+        final AtomicLong maxWaitMillis = new AtomicLong();
+        final AtomicLong totalRunMillis = new AtomicLong();
+    }
+
+    private static class LazyHolder {
+        private static final LoaderScheduler INSTANCE = new LoaderScheduler();
+    }
+}
@@ -3,6 +3,7 @@ package com.firekernel.musicplayer.utils;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 
+import com.firekernel.musicplayer.source.DescriptionFactory;
 import com.firekernel.musicplayer.source.MusicProvider;
 
 import java.util.ArrayList;
@@ -31,7 +32,7 @@ public class QueueHelper {
         String categoryValue = hierarchy[1];
         FireLog.d(TAG, "Creating playing queue for " + categoryType + ",  " + categoryValue);
 
-        List<MediaMetadataCompat> tracks = musicProvider.getAllRetrievedMetadata();
+        List<MediaMetadataCompat> tracks = musicProvider.getPlayableMetadata(categoryType, categoryValue);
 
         if (tracks == null) {
             FireLog.e(TAG, "Unrecognized category type: " + categoryType + " for media " + mediaId);
@@ -51,16 +52,12 @@ public class QueueHelper {
             // We create a hierarchy-aware mediaID, so we know what the queue is about by looking
             // at the QueueItem media IDs.
             String hierarchyAwareMediaID = MediaIDHelper.createMediaID(
-                    track.getDescription().getMediaId(), categories);
-
-            MediaMetadataCompat trackCopy = new MediaMetadataCompat.Builder(track)
-                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
-                    .build();
+                    track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID), categories);
 
             // We don't expect queues to change after created, so we use the item index as the
             // queueId. Any other number unique in the queue would work.
             MediaSessionCompat.QueueItem item = new MediaSessionCompat.QueueItem(
-                    trackCopy.getDescription(), id++);
+                    DescriptionFactory.create(hierarchyAwareMediaID, track), id++);
             queue.add(item);
         }
         return queue;
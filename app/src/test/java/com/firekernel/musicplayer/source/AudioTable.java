@@ -0,0 +1,98 @@
+package com.firekernel.musicplayer.source;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MediaStore's audio table with generated music rows, ids 1 to count, answering the queries
+ * {@link LocalSource} reads the catalog with: the row count, the smallest or largest id, and
+ * keyset chunks of an id range in id order.
+ */
+class AudioTable implements KeysetIterator.ChunkQuery {
+    private final int count;
+    private final long chunkDelayMillis;
+
+    /**
+     * @param chunkDelayMillis added to every chunk query, standing in for the provider's own
+     *                         cost of running the statement and filling the window
+     */
+    AudioTable(int count, long chunkDelayMillis) {
+        this.count = count;
+        this.chunkDelayMillis = chunkDelayMillis;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        List<Object[]> rows = new ArrayList<>();
+        if (projection[0].startsWith("count(")) {
+            rows.add(new Object[]{count});
+            return new FakeCursor(projection, rows);
+        }
+        if (sortOrder.endsWith(" LIMIT 1")) {
+            rows.add(new Object[]{sortOrder.contains(" DESC ") ? (long) count : 1L});
+            return new FakeCursor(projection, rows);
+        }
+
+        // is_music, then the id range if any, then the key of the last row read if any
+        long from = 1;
+        long to = count + 1;
+        int arg = 1;
+        if (selection.contains(MediaStore.Audio.Media._ID + " >= ?")) {
+            from = Long.parseLong(selectionArgs[arg++]);
+            to = Long.parseLong(selectionArgs[arg++]);
+        }
+        if (arg < selectionArgs.length) {
+            from = Math.max(from, Long.parseLong(selectionArgs[arg]) + 1);
+        }
+        int limit = Integer.parseInt(sortOrder.substring(sortOrder.lastIndexOf(' ') + 1));
+        for (long id = from; id < to && rows.size() < limit; id++) {
+            rows.add(createRow(projection, id));
+        }
+        if (chunkDelayMillis > 0) {
+            try {
+                Thread.sleep(chunkDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new FakeCursor(projection, rows);
+    }
+
+    private static Object[] createRow(String[] projection, long id) {
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            row[i] = getValue(projection[i], id);
+        }
+        return row;
+    }
+
+    private static Object getValue(String column, long id) {
+        if (MediaStore.Audio.Media._ID.equals(column)) {
+            return id;
+        } else if (MediaStore.Audio.Media.DATA.equals(column)) {
+            return "/storage/emulated/0/Music/" + id % 50 + "/" + id + ".mp3";
+        } else if (MediaStore.Audio.Media.TITLE.equals(column)) {
+            return "Title " + id;
+        } else if (MediaStore.Audio.Media.ARTIST.equals(column)) {
+            return "Artist " + id % 300;
+        } else if (MediaStore.Audio.Media.ALBUM.equals(column)) {
+            return "Album " + id % 1000;
+        } else if (MediaStore.Audio.Media.DURATION.equals(column)) {
+            return 180000 + id;
+        } else if (MediaStore.Audio.Media.ALBUM_ID.equals(column)) {
+            return id % 1000;
+        } else if (MediaStore.Audio.Media.ARTIST_ID.equals(column)) {
+            return id % 300;
+        } else if (MediaStore.Audio.Media.DATE_MODIFIED.equals(column)) {
+            return 1500000000L + id;
+        } else if (MediaStore.Audio.Media.YEAR.equals(column)) {
+            return 2000 + id % 20;
+        }
+        throw new IllegalArgumentException("column '" + column + "' does not exist");
+    }
+}
@@ -0,0 +1,44 @@
+package com.firekernel.musicplayer.source;
+
+import org.junit.Test;
+
+/**
+ * Time of {@link LocalSource#loadCatalog(int)} over a 50k-row audio table for every thread
+ * count from one to the catalog executor's size, with the cursor reads and row decoding of a
+ * real load. Each chunk query also waits a few milliseconds, the provider side of a query that
+ * the ranges are meant to overlap; the decoding only scales with the device's cores.
+ */
+public class CatalogLoadBenchmark {
+    private static final int ROWS = 50000;
+    private static final long CHUNK_DELAY_MILLIS = 5;
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void loadCatalog() {
+        LocalSource source = new LocalSource(new AudioTable(ROWS, CHUNK_DELAY_MILLIS));
+        int maxThreads = Math.max(4, LocalSource.CATALOG_LOAD_THREADS);
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            source.loadCatalog(1);
+            source.loadCatalog(maxThreads);
+        }
+
+        StringBuilder readings = new StringBuilder("CatalogLoadBenchmark, " + ROWS + " rows, "
+                + CHUNK_DELAY_MILLIS + " ms per chunk query, executor threads "
+                + LocalSource.CATALOG_LOAD_THREADS + ", cores " + Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                MusicCatalog catalog = source.loadCatalog(threads);
+                best = Math.min(best, System.nanoTime() - start);
+                if (catalog.size() != ROWS) {
+                    throw new AssertionError("loaded " + catalog.size() + " of " + ROWS + " rows");
+                }
+            }
+            readings.append("\n  threads=").append(threads).append(": ").append(best / 1000000)
+                    .append(" ms");
+        }
+        System.out.println(readings);
+    }
+}
@@ -0,0 +1,102 @@
+package com.firekernel.musicplayer.source;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FolderIndexTest {
+    // folder table of a catalog and, for every track in catalog order, its folder and duration
+    private static final String[] FOLDERS = {
+            "/storage/emulated/0/Music/Rock",
+            "/storage/emulated/0/Music",
+            "/storage/emulated/0/Music/Rock/Live",
+            "/storage/emulated/0/Podcasts",
+            "/sdcard/Jazz"};
+    private static final int[] TRACK_FOLDERS = {0, 1, 2, 0, -1, 3, 4, 2};
+    private static final long[] DURATIONS = {10, 20, 30, 40, 50, 60, 70, 80};
+
+    private final FolderIndex index = new FolderIndex(FOLDERS, TRACK_FOLDERS, DURATIONS);
+
+    @Test
+    public void getRoots_skipsFoldersWithASingleSubFolderAndNoTracks() {
+        // /storage, /storage/emulated and /sdcard are passed through
+        assertArrayEquals(new String[]{"/sdcard/Jazz", "/storage/emulated/0"},
+                getPaths(index.getRoots()));
+    }
+
+    @Test
+    public void getChildren_listsSubFoldersInPathOrder() {
+        int root = index.find("/storage/emulated/0");
+        assertArrayEquals(new String[]{"/storage/emulated/0/Music", "/storage/emulated/0/Podcasts"},
+                getPaths(index.getChildren(root)));
+
+        int music = index.find("/storage/emulated/0/Music");
+        assertArrayEquals(new String[]{"/storage/emulated/0/Music/Rock"}, getPaths(index.getChildren(music)));
+        assertEquals("Music", index.getName(music));
+    }
+
+    @Test
+    public void getDirectTracks_keepsCatalogOrderAndLeavesOutSubFolders() {
+        assertArrayEquals(new int[]{0, 3}, index.getDirectTracks(index.find("/storage/emulated/0/Music/Rock")));
+        assertArrayEquals(new int[]{2, 7}, index.getDirectTracks(index.find("/storage/emulated/0/Music/Rock/Live")));
+        assertArrayEquals(new int[0], index.getDirectTracks(index.find("/storage/emulated/0")));
+    }
+
+    @Test
+    public void countsAndDurationsCoverTheWholeSubTree() {
+        int music = index.find("/storage/emulated/0/Music");
+        assertEquals(5, index.getTrackCount(music));
+        assertEquals(10 + 20 + 30 + 40 + 80, index.getDuration(music));
+
+        int root = index.find("/storage/emulated/0");
+        assertEquals(6, index.getTrackCount(root));
+        assertEquals(1, index.getFirstTrack(music));
+
+        int jazz = index.find("/sdcard/Jazz");
+        assertEquals(1, index.getTrackCount(jazz));
+        assertEquals(70, index.getDuration(jazz));
+    }
+
+    @Test
+    public void find_onlyMatchesWholeFolders() {
+        assertEquals(-1, index.find("/storage/emulated/0/Mus"));
+        assertEquals(-1, index.find("/nowhere"));
+    }
+
+    @Test
+    public void prefixOfASiblingIsNotAnAncestor() {
+        // "/a/b" sorts before "/a/b c" without the separator, which isn't below it
+        FolderIndex siblings = new FolderIndex(new String[]{"/a/b", "/a/b c", "/a/b/d"},
+                new int[]{0, 1, 2}, new long[]{1, 2, 4});
+
+        int b = siblings.find("/a/b");
+        assertEquals(2, siblings.getTrackCount(b));
+        assertEquals(5, siblings.getDuration(b));
+        assertArrayEquals(new String[]{"/a/b/d"}, getPaths(siblings, siblings.getChildren(b)));
+    }
+
+    @Test
+    public void emptyFolderPathOfAFileAtTheRootIsLeftOut() {
+        // "/x.mp3" was once stored with the folder "", which has no node of its own
+        FolderIndex root = new FolderIndex(new String[]{"", "/music"}, new int[]{0, 1, 1},
+                new long[]{1, 2, 4});
+
+        assertArrayEquals(new String[]{"/music"}, getPaths(root, root.getRoots()));
+        assertEquals(-1, root.find(""));
+        assertEquals(2, root.getTrackCount(root.find("/music")));
+        assertArrayEquals(new int[]{1, 2}, root.getDirectTracks(root.find("/music")));
+    }
+
+    private String[] getPaths(int[] nodes) {
+        return getPaths(index, nodes);
+    }
+
+    private static String[] getPaths(FolderIndex index, int[] nodes) {
+        String[] paths = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            paths[i] = index.getPath(nodes[i]);
+        }
+        return paths;
+    }
+}
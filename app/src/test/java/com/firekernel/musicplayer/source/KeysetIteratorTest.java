@@ -0,0 +1,215 @@
+package com.firekernel.musicplayer.source;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeysetIteratorTest {
+    private static final String ID = "_id";
+    private static final String TITLE = "title_key";
+
+    private static final RowMapper<String> MAPPER = new RowMapper<String>(ID, TITLE) {
+        @Override
+        String map(Cursor cursor, int[] columns) {
+            return cursor.getLong(columns[0]) + ":" + cursor.getString(columns[1]);
+        }
+    };
+
+    @Test
+    public void readsEveryRowInSortOrderAcrossChunks() {
+        // many equal and missing titles, so chunks end in the middle of a run of them
+        Random random = new Random(7);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 1; i <= 2 * KeysetIterator.CHUNK_SIZE + 500; i++) {
+            int title = random.nextInt(40);
+            rows.add(new Row(i * 3 % 10007, title < 4 ? null : "title " + title));
+        }
+        Table table = new Table(rows);
+
+        List<String> read = readAll(new KeysetIterator<>(table, null, MAPPER, null, null, TITLE, ID));
+
+        List<Row> sorted = new ArrayList<>(rows);
+        Collections.sort(sorted, Row.BY_TITLE);
+        assertEquals(toStrings(sorted), read);
+        assertEquals(3, table.queries);
+    }
+
+    @Test
+    public void readsByKeyAloneWithoutSortColumn() {
+        List<Row> rows = new ArrayList<>();
+        for (int i = KeysetIterator.CHUNK_SIZE + 10; i > 0; i--) {
+            rows.add(new Row(i, "title " + i));
+        }
+        Table table = new Table(rows);
+
+        List<String> read = readAll(new KeysetIterator<>(table, null, MAPPER, null, null, null, ID));
+
+        assertEquals(rows.size(), read.size());
+        assertEquals("1:title 1", read.get(0));
+        assertEquals((KeysetIterator.CHUNK_SIZE + 10) + ":title " + (KeysetIterator.CHUNK_SIZE + 10),
+                read.get(read.size() - 1));
+        assertEquals(2, table.queries);
+    }
+
+    @Test
+    public void queriesTheNextChunkOnlyWhenTheCurrentOneIsUsedUp() {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 1; i <= 2 * KeysetIterator.CHUNK_SIZE; i++) {
+            rows.add(new Row(i, "title"));
+        }
+        Table table = new Table(rows);
+        KeysetIterator<String> iterator = new KeysetIterator<>(table, null, MAPPER, null, null, TITLE, ID);
+
+        assertEquals(0, table.queries);
+        for (int i = 0; i < KeysetIterator.CHUNK_SIZE; i++) {
+            iterator.next();
+        }
+        assertEquals(1, table.queries);
+        assertTrue(iterator.hasNext());
+        assertEquals(2, table.queries);
+
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        assertEquals(2, table.queries);
+    }
+
+    @Test
+    public void qualifiesTheKeyInClausesButNotInTheProjection() {
+        // playlist members are a join where _id alone is ambiguous
+        String key = "audio_playlists_map." + ID;
+        List<Row> rows = new ArrayList<>();
+        for (int i = 1; i <= KeysetIterator.CHUNK_SIZE + 1; i++) {
+            rows.add(new Row(i, "title"));
+        }
+        Table table = new Table(rows);
+
+        List<String> read = readAll(new KeysetIterator<>(table, null, MAPPER, null, null, TITLE, key));
+
+        assertEquals(rows.size(), read.size());
+        assertEquals(2, table.queries);
+        assertEquals("(" + TITLE + " > ? OR (" + TITLE + " = ? AND " + key + " > ?))", table.lastSelection);
+        assertEquals(TITLE + " ASC, " + key + " ASC LIMIT " + KeysetIterator.CHUNK_SIZE, table.lastSortOrder);
+        for (String column : table.lastProjection) {
+            assertFalse(column, column.contains("."));
+        }
+    }
+
+    private static List<String> readAll(KeysetIterator<String> iterator) {
+        List<String> read = new ArrayList<>();
+        while (iterator.hasNext()) {
+            read.add(iterator.next());
+        }
+        return read;
+    }
+
+    private static List<String> toStrings(List<Row> rows) {
+        List<String> strings = new ArrayList<>();
+        for (Row row : rows) {
+            strings.add(row.id + ":" + row.title);
+        }
+        return strings;
+    }
+
+    private static class Row {
+        // like SQLite: nulls first, then by title, then by id
+        static final Comparator<Row> BY_TITLE = new Comparator<Row>() {
+            @Override
+            public int compare(Row lhs, Row rhs) {
+                int titles = compareTitles(lhs.title, rhs.title);
+                return titles != 0 ? titles : Long.compare(lhs.id, rhs.id);
+            }
+        };
+
+        final long id;
+        final String title;
+
+        Row(long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        static int compareTitles(String lhs, String rhs) {
+            if (lhs == null) {
+                return rhs == null ? 0 : -1;
+            }
+            return rhs == null ? 1 : lhs.compareTo(rhs);
+        }
+    }
+
+    /**
+     * Answers chunk queries the way the provider would, for the keyset clauses the iterator
+     * writes: ordered by the sort column, if any, and the key, after the last row read and up
+     * to the limit.
+     */
+    private static class Table implements KeysetIterator.ChunkQuery {
+        private final List<Row> rows;
+        int queries;
+        String[] lastProjection;
+        String lastSelection;
+        String lastSortOrder;
+
+        Table(List<Row> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            queries++;
+            lastProjection = projection;
+            lastSelection = selection;
+            lastSortOrder = sortOrder;
+            boolean bySortColumn = sortOrder.startsWith(TITLE);
+            List<Row> sorted = new ArrayList<>(rows);
+            Collections.sort(sorted, bySortColumn ? Row.BY_TITLE : new Comparator<Row>() {
+                @Override
+                public int compare(Row lhs, Row rhs) {
+                    return Long.compare(lhs.id, rhs.id);
+                }
+            });
+            int limit = Integer.parseInt(sortOrder.substring(sortOrder.lastIndexOf(' ') + 1));
+
+            List<Object[]> values = new ArrayList<>();
+            for (Row row : sorted) {
+                if (values.size() == limit) {
+                    break;
+                }
+                if (!isAfter(row, selection, selectionArgs)) {
+                    continue;
+                }
+                Object[] value = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    value[i] = ID.equals(projection[i]) ? (Object) row.id : row.title;
+                }
+                values.add(value);
+            }
+            return new FakeCursor(projection, values);
+        }
+
+        private static boolean isAfter(Row row, String selection, String[] args) {
+            if (selection == null) {
+                return true;
+            }
+            long lastKey = Long.parseLong(args[args.length - 1]);
+            if (args.length == 1 && selection.contains("IS NOT NULL")) {
+                return row.title != null || row.id > lastKey;
+            }
+            if (args.length == 1) {
+                return row.id > lastKey;
+            }
+            int titles = Row.compareTitles(row.title, args[0]);
+            return row.title != null && (titles > 0 || (titles == 0 && row.id > lastKey));
+        }
+    }
+}
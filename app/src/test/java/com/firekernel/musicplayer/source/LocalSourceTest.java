@@ -0,0 +1,30 @@
+package com.firekernel.musicplayer.source;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LocalSourceTest {
+
+    @Test
+    public void loadCatalog_readsTheSameCatalogInRangesAsInOnePass() {
+        // enough rows for four ranges, each of several chunks
+        LocalSource source = new LocalSource(new AudioTable(10000, 0));
+
+        MusicCatalog onePass = source.loadCatalog(1);
+        MusicCatalog ranged = source.loadCatalog(4);
+
+        assertEquals(10000, ranged.size());
+        assertEquals(onePass.getStamp(), ranged.getStamp());
+        assertEquals(onePass.getAlbumCount(), ranged.getAlbumCount());
+        assertEquals(onePass.getFolderCount(), ranged.getFolderCount());
+        for (int track = 0; track < onePass.size(); track++) {
+            assertEquals(onePass.getId(track), ranged.getId(track));
+            assertEquals(onePass.getTitle(track), ranged.getTitle(track));
+            assertEquals(onePass.getFolderPathAt(onePass.getFolderOrdinal(track)),
+                    ranged.getFolderPathAt(ranged.getFolderOrdinal(track)));
+        }
+        assertEquals("content://media/external/audio/albumart/" + (ranged.getId(0) % 1000),
+                ranged.getAlbumArtAt(ranged.getAlbumOrdinal(0)));
+    }
+}
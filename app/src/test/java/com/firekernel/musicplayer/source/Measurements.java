@@ -0,0 +1,36 @@
+package com.firekernel.musicplayer.source;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Readings shared by the benchmarks, which only run with -Pbenchmarks.
+ */
+final class Measurements {
+
+    private Measurements() {
+    }
+
+    /**
+     * @return bytes allocated by the calling thread so far, or -1 if the JVM doesn't count them
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @param samples readings, sorted in place
+     * @return the reading below which percent of them are, nearest rank
+     */
+    static long percentile(long[] samples, int percent) {
+        Arrays.sort(samples);
+        int rank = (int) Math.ceil(percent / 100.0 * samples.length);
+        return samples[Math.max(rank, 1) - 1];
+    }
+}
@@ -0,0 +1,202 @@
+package com.firekernel.musicplayer.source;
+
+import android.support.v4.media.MediaDescriptionCompat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ALBUM;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ARTIST;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_FOLDER;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_TRACKS;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.createMediaID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MusicCatalogTest {
+    private static final Set<String> NONE_REMOVED = Collections.emptySet();
+
+    private static MusicCatalog createCatalog() {
+        return new MusicCatalog.Builder()
+                .add(1, "/music/rock/a.mp3", "Alpha", "Band", "First", 1000, null, 10, 20, 100, 2001)
+                .add(2, "/music/rock/b.mp3", "Bravo", "Band", "First", 2000, null, 10, 20, 100, 2001)
+                .add(3, "/music/jazz/c.mp3", "Charlie", "Trio", "Second", 3000, null, 11, 21, 100, 1999)
+                .build();
+    }
+
+    @Test
+    public void build_sortsByTitleAndStampsTheRows() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(7, "/music/b.mp3", "bravo", "Band", "First", 1000, null, 10, 20, 300, 0)
+                .add(5, "/music/a.mp3", "Alpha", "Band", "First", 1000, null, 10, 20, 200, 0)
+                .build();
+
+        assertEquals("Alpha", catalog.getTitle(0));
+        assertEquals("bravo", catalog.getTitle(1));
+        assertEquals(1, catalog.indexOf(7));
+        assertEquals(new MusicCatalog.Stamp(2, 7, 300), catalog.getStamp());
+    }
+
+    @Test
+    public void applyChanges_addsModifiesAndRemovesTracks() {
+        MusicCatalog catalog = createCatalog();
+        MusicCatalog changed = new MusicCatalog.Builder()
+                .add(2, "/music/rock/b.mp3", "Bravo (Live)", "Band", "First", 2000, null, 10, 20, 200, 2001)
+                .add(4, "/music/pop/d.mp3", "Delta", "Singer", "Third", 4000, null, 12, 22, 200, 2010)
+                .build();
+
+        MusicCatalog.Update update = catalog.applyChanges(changed, Collections.singleton("3"));
+        MusicCatalog next = update.getCatalog();
+
+        assertEquals(3, next.size());
+        assertTrue(next.contains("1"));
+        assertFalse(next.contains("3"));
+        assertEquals("Bravo (Live)", next.getTitle(next.indexOf(2)));
+        assertEquals("Delta", next.getTitle(next.indexOf(4)));
+        // the catalog it was applied to stays as it was
+        assertEquals("Bravo", catalog.getTitle(catalog.indexOf(2)));
+        assertTrue(catalog.contains("3"));
+
+        Set<String> affected = update.getAffectedParents();
+        assertTrue(affected.contains(MEDIA_ID_TRACKS));
+        assertTrue(affected.contains(createMediaID(null, MEDIA_ID_ALBUM, "10")));
+        assertTrue(affected.contains(createMediaID(null, MEDIA_ID_ALBUM, "11")));
+        assertTrue(affected.contains(createMediaID(null, MEDIA_ID_ALBUM, "12")));
+        assertTrue(affected.contains(createMediaID(null, MEDIA_ID_ARTIST, "21")));
+        // a folder and all of its ancestors
+        assertTrue(affected.contains(createMediaID(null, MEDIA_ID_FOLDER, "/music/pop")));
+        assertTrue(affected.contains(createMediaID(null, MEDIA_ID_FOLDER, "/music")));
+        // tracks were added and removed, the category lists show new counts
+        assertTrue(affected.contains(MEDIA_ID_ALBUM));
+        assertTrue(affected.contains(MEDIA_ID_FOLDER));
+    }
+
+    @Test
+    public void applyChanges_onlyRetitledTrackLeavesCategoryListsAlone() {
+        MusicCatalog catalog = createCatalog();
+        MusicCatalog changed = new MusicCatalog.Builder()
+                .add(1, "/music/rock/a.mp3", "Alpha (Remastered)", "Band", "First", 1000, null, 10, 20, 200, 2001)
+                .build();
+
+        Set<String> affected = catalog.applyChanges(changed, NONE_REMOVED).getAffectedParents();
+
+        Set<String> expected = new HashSet<>();
+        expected.add(MEDIA_ID_TRACKS);
+        expected.add(createMediaID(null, MEDIA_ID_ALBUM, "10"));
+        expected.add(createMediaID(null, MEDIA_ID_ARTIST, "20"));
+        expected.add(createMediaID(null, MEDIA_ID_FOLDER, "/music/rock"));
+        expected.add(createMediaID(null, MEDIA_ID_FOLDER, "/music"));
+        assertEquals(expected, affected);
+    }
+
+    @Test
+    public void applyChanges_ignoresRowsReadAgainUnchanged() {
+        // rows of the watermark second are read again on every sync
+        MusicCatalog catalog = createCatalog();
+        MusicCatalog changed = new MusicCatalog.Builder()
+                .add(3, "/music/jazz/c.mp3", "Charlie", "Trio", "Second", 3000, null, 11, 21, 100, 1999)
+                .build();
+
+        MusicCatalog.Update update = catalog.applyChanges(changed, NONE_REMOVED);
+
+        assertTrue(update.getAffectedParents().isEmpty());
+        assertEquals(catalog.getStamp(), update.getCatalog().getStamp());
+    }
+
+    @Test
+    public void getChildren_listsTheTracksOfAnAlbum() {
+        MusicCatalog catalog = createCatalog();
+
+        List<?> tracks = catalog.getChildren(createMediaID(null, MEDIA_ID_ALBUM, "10"));
+        MusicCatalog.ChildList children = (MusicCatalog.ChildList) tracks;
+
+        assertEquals(2, tracks.size());
+        assertEquals("1", children.getChildId(0));
+        assertEquals("2", children.getChildId(1));
+        assertEquals(0, catalog.getChildren(createMediaID(null, MEDIA_ID_ALBUM, "99")).size());
+    }
+
+    @Test
+    public void build_keepsAFileAtTheRootOutOfTheFolders() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/x.mp3", "Root", "Band", "First", 1000, null, 10, 20, 100, 0)
+                .add(2, "/music/y.mp3", "Music", "Band", "First", 1000, null, 10, 20, 100, 0)
+                .build();
+
+        assertEquals(1, catalog.getFolderCount());
+        assertEquals(-1, catalog.getFolderOrdinal(catalog.indexOf(1)));
+        assertEquals("/x.mp3", catalog.getFileName(catalog.indexOf(1)));
+        assertEquals(1, catalog.getChildren(MEDIA_ID_FOLDER).size());
+    }
+
+    @Test
+    public void rangesMergedInIdOrderBuildTheSameCatalogAsOnePass() throws Exception {
+        int count = 10000;
+        MusicCatalog onePass = fill(new MusicCatalog.Builder(), 1, count + 1).build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        MusicCatalog ranged;
+        try {
+            ranged = buildInRanges(executor, count, 4);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(onePass.getStamp(), ranged.getStamp());
+        assertEquals(onePass.getAlbumCount(), ranged.getAlbumCount());
+        assertEquals(onePass.getArtistCount(), ranged.getArtistCount());
+        assertEquals(onePass.getFolderCount(), ranged.getFolderCount());
+        for (int track = 0; track < count; track++) {
+            assertEquals(onePass.getId(track), ranged.getId(track));
+            assertEquals(onePass.getFileName(track), ranged.getFileName(track));
+            assertEquals(onePass.getAlbumTitleAt(onePass.getAlbumOrdinal(track)),
+                    ranged.getAlbumTitleAt(ranged.getAlbumOrdinal(track)));
+            assertEquals(onePass.getArtistNameAt(onePass.getArtistOrdinal(track)),
+                    ranged.getArtistNameAt(ranged.getArtistOrdinal(track)));
+            assertEquals(onePass.getFolderPathAt(onePass.getFolderOrdinal(track)),
+                    ranged.getFolderPathAt(ranged.getFolderOrdinal(track)));
+        }
+    }
+
+    /**
+     * Fills a builder per id range on the executor and merges them in id order, the way
+     * LocalSource.loadCatalog does with the ranges it reads.
+     */
+    private static MusicCatalog buildInRanges(ExecutorService executor, int count, int ranges)
+            throws Exception {
+        List<Callable<MusicCatalog.Builder>> tasks = new ArrayList<>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            final long from = 1 + (long) count * i / ranges;
+            final long to = 1 + (long) count * (i + 1) / ranges;
+            tasks.add(new Callable<MusicCatalog.Builder>() {
+                @Override
+                public MusicCatalog.Builder call() {
+                    return fill(new MusicCatalog.Builder(), from, to);
+                }
+            });
+        }
+        MusicCatalog.Builder merged = new MusicCatalog.Builder(count);
+        for (Future<MusicCatalog.Builder> range : executor.invokeAll(tasks)) {
+            merged.addAll(range.get());
+        }
+        return merged.build();
+    }
+
+    static MusicCatalog.Builder fill(MusicCatalog.Builder builder, long from, long to) {
+        for (long id = from; id < to; id++) {
+            builder.add(id, "/music/" + id % 50 + "/" + id + ".mp3", "Title " + id, "Artist " + id % 300,
+                    "Album " + id % 1000, 180000 + id, null, id % 1000, id % 300, 1500000000L + id,
+                    (int) (2000 + id % 20));
+        }
+        return builder;
+    }
+}
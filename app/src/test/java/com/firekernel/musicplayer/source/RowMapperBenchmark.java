@@ -0,0 +1,70 @@
+package com.firekernel.musicplayer.source;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+/**
+ * Rows per second mapped from a 50k-row cursor with every catalog column, looking the column
+ * indices up once per cursor through {@link RowMapper#resolve(Cursor)} against the baseline
+ * of looking every column up by name on every row.
+ */
+public class RowMapperBenchmark {
+    private static final int ROWS = 50000;
+    private static final int WARM_UP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private static final RowMapper<Long> CATALOG_MAPPER = new RowMapper<Long>("_id", "_data",
+            "title", "artist", "album", "duration", "album_id", "artist_id", "date_modified", "year") {
+        @Override
+        Long map(Cursor cursor, int[] columns) {
+            // every column read the way the catalog reads it
+            long sum = cursor.getLong(columns[0]) + cursor.getLong(columns[5])
+                    + cursor.getLong(columns[6]) + cursor.getLong(columns[7])
+                    + cursor.getLong(columns[8]) + cursor.getInt(columns[9]);
+            return sum + cursor.getString(columns[1]).length() + cursor.getString(columns[2]).length()
+                    + cursor.getString(columns[3]).length() + cursor.getString(columns[4]).length();
+        }
+    };
+
+    @Test
+    public void mapRows() {
+        FakeCursor cursor = RowMapperTest.createCursor(ROWS);
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            readAll(cursor, true);
+            readAll(cursor, false);
+        }
+
+        long perRow = Long.MAX_VALUE;
+        long once = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            perRow = Math.min(perRow, readAll(cursor, true));
+            once = Math.min(once, readAll(cursor, false));
+        }
+        System.out.println("RowMapperBenchmark, " + ROWS + " rows of " + cursor.getColumnCount()
+                + " columns: column lookup per row " + rowsPerSecond(perRow) + " rows/s,"
+                + " resolved once per cursor " + rowsPerSecond(once) + " rows/s");
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return ROWS * 1000000000L / Math.max(nanos, 1);
+    }
+
+    /**
+     * @return nanoseconds taken
+     */
+    private static long readAll(FakeCursor cursor, boolean resolvePerRow) {
+        long start = System.nanoTime();
+        long checksum = 0;
+        cursor.moveToPosition(-1);
+        int[] columns = CATALOG_MAPPER.resolve(cursor);
+        while (cursor.moveToNext()) {
+            checksum += CATALOG_MAPPER.map(cursor, resolvePerRow ? CATALOG_MAPPER.resolve(cursor) : columns);
+        }
+        long nanos = System.nanoTime() - start;
+        if (checksum == 0) {
+            throw new AssertionError("nothing read");
+        }
+        return nanos;
+    }
+}
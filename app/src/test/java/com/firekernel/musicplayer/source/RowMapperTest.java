@@ -0,0 +1,62 @@
+package com.firekernel.musicplayer.source;
+
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RowMapperTest {
+    // the columns the catalog is read with, in a different order than the projection
+    private static final String[] COLUMNS = {"year", "date_modified", "artist_id", "album_id",
+            "duration", "album", "artist", "title", "_data", "_id"};
+
+    private static final RowMapper<String> TITLE_MAPPER = new RowMapper<String>("_id", "title") {
+        @Override
+        String map(Cursor cursor, int[] columns) {
+            return cursor.getLong(columns[0]) + ":" + cursor.getString(columns[1]);
+        }
+    };
+
+    @Test
+    public void resolve_returnsTheIndicesInProjectionOrder() {
+        FakeCursor cursor = new FakeCursor(COLUMNS, new ArrayList<Object[]>());
+
+        assertArrayEquals(new int[]{9, 7}, TITLE_MAPPER.resolve(cursor));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resolve_throwsForAColumnMissingFromTheCursor() {
+        TITLE_MAPPER.resolve(new FakeCursor(new String[]{"_id"}, new ArrayList<Object[]>()));
+    }
+
+    @Test
+    public void map_looksUpEveryColumnOncePerCursor() {
+        FakeCursor cursor = createCursor(1000);
+
+        List<String> rows = new ArrayList<>();
+        int[] columns = TITLE_MAPPER.resolve(cursor);
+        while (cursor.moveToNext()) {
+            rows.add(TITLE_MAPPER.map(cursor, columns));
+        }
+
+        assertEquals(1000, rows.size());
+        assertEquals("1:Title 1", rows.get(0));
+        assertEquals(2, cursor.columnLookups);
+    }
+
+    static FakeCursor createCursor(int count) {
+        List<Object[]> rows = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            rows.add(new Object[]{2000 + i % 20, 1500000000L + i, (long) i % 300, (long) i % 1000,
+                    180000L + i, "Album " + i % 1000, "Artist " + i % 300, "Title " + i,
+                    "/music/" + i % 50 + "/" + i + ".mp3", (long) i});
+        }
+        return new FakeCursor(Arrays.copyOf(COLUMNS, COLUMNS.length), rows);
+    }
+}
@@ -0,0 +1,72 @@
+package com.firekernel.musicplayer.source;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Latency of fuzzy track searches, words with two adjacent letters swapped or one letter
+ * replaced, over a 50k-track library of random words, so hardly any query is the prefix of a
+ * word and they go through the trigram candidates. The target is under 5 ms per query.
+ */
+public class SearchIndexBenchmark {
+    private static final int TRACKS = 50000;
+    private static final int QUERIES = 1000;
+    private static final int LIMIT = 20;
+
+    @Test
+    public void fuzzySearch() {
+        Random random = new Random(42);
+        MusicCatalog.Builder builder = new MusicCatalog.Builder(TRACKS);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < TRACKS; i++) {
+            String title = randomWord(random) + " " + randomWord(random);
+            words.add(title.substring(0, title.indexOf(' ')));
+            builder.add(i + 1, "/music/" + (i % 500) + "/" + i + ".mp3", title,
+                    randomWord(random), randomWord(random), 1000, null, i % 2000, i % 800, 0, 0);
+        }
+        SearchIndex index = SearchIndex.build(builder.build(), Collections.<Long, Integer>emptyMap());
+
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            int at = random.nextInt(word.length() - 1);
+            if (i % 2 == 0) {
+                queries.add(word.substring(0, at) + word.charAt(at + 1) + word.charAt(at)
+                        + word.substring(at + 2));
+            } else {
+                char replaced = (char) ('a' + (word.charAt(at) - 'a' + 1 + random.nextInt(25)) % 26);
+                queries.add(word.substring(0, at) + replaced + word.substring(at + 1));
+            }
+        }
+        for (String query : queries) {
+            // warm up the JIT
+            index.searchTracks(query, LIMIT);
+        }
+
+        long[] micros = new long[queries.size()];
+        int found = 0;
+        for (int i = 0; i < queries.size(); i++) {
+            long start = System.nanoTime();
+            found += index.searchTracks(queries.get(i), LIMIT).isEmpty() ? 0 : 1;
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        System.out.println("SearchIndexBenchmark, " + index + ", " + queries.size()
+                + " fuzzy queries, " + found + " with results: p50 "
+                + Measurements.percentile(micros, 50) + " us, p90 " + Measurements.percentile(micros, 90)
+                + " us, p99 " + Measurements.percentile(micros, 99) + " us, max "
+                + Measurements.percentile(micros, 100) + " us");
+    }
+
+    private static String randomWord(Random random) {
+        int length = 4 + random.nextInt(6);
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,193 @@
+package com.firekernel.musicplayer.source;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ALBUM;
+import static com.firekernel.musicplayer.utils.MediaIDHelper.MEDIA_ID_ARTIST;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SearchIndexTest {
+    private static final Map<Long, Integer> NO_PLAYS = Collections.emptyMap();
+
+    @Test
+    public void normalize_foldsCaseDiacriticsAndPunctuation() {
+        assertEquals("beyonce", SearchIndex.normalize("Beyonc\u00e9"));
+        assertEquals("dont stop me now", SearchIndex.normalize("Don't Stop - Me  Now!"));
+        assertEquals("sigur ros agaetis byrjun", SearchIndex.normalize("Sigur R\u00f3s \u2013 \u00c1g\u00e6tis byrjun"));
+        assertEquals(SearchIndex.normalize("STRASSE"), SearchIndex.normalize("Stra\u00dfe"));
+        assertEquals("", SearchIndex.normalize(" ... "));
+    }
+
+    @Test
+    public void tokenize_splitsTheSearchKey() {
+        assertArrayEquals(new String[]{"hey", "jude"}, SearchIndex.tokenize("  Hey, Jude "));
+        assertArrayEquals(new String[0], SearchIndex.tokenize(null));
+    }
+
+    @Test
+    public void trigrams_arePaddedSoEveryLetterHasOne() {
+        assertArrayEquals(new String[]{" ab", "ab "}, SearchIndex.trigrams("ab"));
+        assertEquals(5, SearchIndex.trigrams("hello").length);
+    }
+
+    @Test
+    public void distance_countsSwapsOfAdjacentLettersAsOneEdit() {
+        assertEquals(1, SearchIndex.distance("beatels", "beatles", 2));
+        assertEquals(1, SearchIndex.distance("hlelo", "hello", 1));
+        assertEquals(1, SearchIndex.distance("helo", "hello", 1));
+        assertEquals(0, SearchIndex.distance("hello", "hello", 1));
+        // stops at max + 1
+        assertEquals(2, SearchIndex.distance("abcdef", "uvwxyz", 1));
+    }
+
+    @Test
+    public void search_matchesBySwappedLetters() {
+        SearchIndex index = SearchIndex.build(new MusicCatalog.Builder()
+                .add(1, "/music/hello.mp3", "Hello", "Adele", "25", 1000, null, 10, 20, 0, 0)
+                .add(2, "/music/drop.mp3", "Drop", "Someone", "Album", 1000, null, 11, 21, 0, 0)
+                .build(), NO_PLAYS);
+
+        // shares only one of its five trigrams with "hello"
+        assertEquals(ids(1), getIds(index.searchTracks("hlelo", 10)));
+        // shares none with "drop"
+        assertEquals(ids(2), getIds(index.searchTracks("dorp", 10)));
+    }
+
+    @Test
+    public void search_matchesMisspelledArtist() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Yesterday", "The Beatles", "Help!", 1000, null, 10, 20, 0, 0)
+                .add(2, "/music/b.mp3", "Let It Be", "The Beatles", "Let It Be", 1000, null, 11, 20, 0, 0)
+                .build();
+        SearchIndex index = SearchIndex.build(catalog, NO_PLAYS);
+
+        SearchIndex.Hit hit = index.findArtist("beatels");
+        assertNotNull(hit);
+        assertEquals(MEDIA_ID_ARTIST, hit.category);
+        assertEquals(20, hit.id);
+    }
+
+    @Test
+    public void search_matchesWordPrefixesButNotTheMiddleOfWords() {
+        SearchIndex index = SearchIndex.build(new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Yesterday", "The Beatles", "Help!", 1000, null, 10, 20, 0, 0)
+                .build(), NO_PLAYS);
+
+        assertEquals(ids(1), getIds(index.searchTracks("yest", 10)));
+        assertEquals(ids(), getIds(index.searchTracks("terday", 10)));
+    }
+
+    @Test
+    public void search_needsEveryWordToMatch() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Yesterday", "The Beatles", "Help!", 1000, null, 10, 20, 0, 0)
+                .add(2, "/music/b.mp3", "Yesterday", "Ray Charles", "Greatest", 1000, null, 11, 21, 0, 0)
+                .build();
+        SearchIndex index = SearchIndex.build(catalog, NO_PLAYS);
+
+        assertEquals(ids(2), getIds(index.searchTracks("yesterday ray", 10)));
+        SearchIndex.Hit hit = index.findTrack("yesterday beatles");
+        assertNotNull(hit);
+        assertEquals(1, hit.id);
+        assertEquals(10, hit.albumId);
+        assertNull(index.findTrack("yesterday sinatra"));
+    }
+
+    @Test
+    public void search_ranksTitlesAboveArtistsAndAlbums() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Anything", "Help Band", "Other", 1000, null, 10, 20, 0, 0)
+                .add(2, "/music/b.mp3", "Zebra", "Nobody", "Help", 1000, null, 11, 21, 0, 0)
+                .add(3, "/music/c.mp3", "Help", "Nobody", "Other", 1000, null, 10, 21, 0, 0)
+                .build();
+        SearchIndex index = SearchIndex.build(catalog, NO_PLAYS);
+
+        assertEquals(ids(3, 1, 2), getIds(index.searchTracks("help", 10)));
+        assertEquals(ids(3), getIds(index.searchTracks("help", 1)));
+    }
+
+    @Test
+    public void search_ranksExactWordsAbovePrefixes() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Lovely", "Someone", "Album", 1000, null, 10, 20, 0, 0)
+                .add(2, "/music/b.mp3", "Love", "Someone", "Album", 1000, null, 10, 20, 0, 0)
+                .build();
+        SearchIndex index = SearchIndex.build(catalog, NO_PLAYS);
+
+        assertEquals(ids(2, 1), getIds(index.searchTracks("love", 10)));
+    }
+
+    @Test
+    public void search_ranksTracksPlayedOftenFirst() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Intro", "First", "Album", 1000, null, 10, 20, 0, 0)
+                .add(2, "/music/b.mp3", "Intro", "Second", "Album", 1000, null, 10, 21, 0, 0)
+                .build();
+        Map<Long, Integer> playCounts = new HashMap<>();
+        playCounts.put(2L, 50);
+
+        assertEquals(ids(1, 2), getIds(SearchIndex.build(catalog, NO_PLAYS).searchTracks("intro", 10)));
+        assertEquals(ids(2, 1), getIds(SearchIndex.build(catalog, playCounts).searchTracks("intro", 10)));
+    }
+
+    @Test
+    public void findAny_prefersAlbumOverTrackOnTie() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Thriller", "Michael Jackson", "Thriller", 1000, null, 10, 20, 0, 0)
+                .build();
+        SearchIndex.Hit hit = SearchIndex.build(catalog, NO_PLAYS).findAny("thriller");
+
+        assertNotNull(hit);
+        assertEquals(MEDIA_ID_ALBUM, hit.category);
+        assertEquals(10, hit.id);
+    }
+
+    @Test
+    public void update_leavesTheOldIndexAsItWas() {
+        MusicCatalog catalog = new MusicCatalog.Builder()
+                .add(1, "/music/a.mp3", "Yesterday", "The Beatles", "Help!", 1000, null, 10, 20, 0, 0)
+                .add(2, "/music/b.mp3", "Something", "The Beatles", "Abbey Road", 1000, null, 11, 20, 0, 0)
+                .build();
+        MusicCatalog changed = new MusicCatalog.Builder()
+                .add(3, "/music/c.mp3", "Yellow", "Coldplay", "Parachutes", 1000, null, 12, 22, 1, 0)
+                .build();
+        MusicCatalog next = catalog.applyChanges(changed, Collections.singleton("1")).getCatalog();
+        SearchIndex index = SearchIndex.build(catalog, NO_PLAYS);
+
+        SearchIndex updated = index.update(next, changed, Collections.singleton("1"), NO_PLAYS);
+
+        assertEquals(ids(3), getIds(updated.searchTracks("ye", 10)));
+        assertNull(updated.findAlbum("help"));
+        assertNotNull(updated.findArtist("beatles"));
+        assertEquals(ids(1), getIds(index.searchTracks("ye", 10)));
+        assertNotNull(updated.findArtist("coldplay"));
+        assertNull(index.findArtist("coldplay"));
+    }
+
+    private static List<String> ids(long... ids) {
+        List<String> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(String.valueOf(id));
+        }
+        return list;
+    }
+
+    private static List<String> getIds(List<?> tracks) {
+        // a view on the catalog, read without building any metadata
+        MusicCatalog.ChildList children = (MusicCatalog.ChildList) tracks;
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < tracks.size(); i++) {
+            ids.add(children.getChildId(i));
+        }
+        return ids;
+    }
+}